@@ -0,0 +1,127 @@
+/**
+ * Transposition table of the A* search: the best number of steps found so far for every board
+ * seen, and whether the board was already expanded. The boards are identified by their 64-bit
+ * {@link Board#key()}, and the table is an open-addressing hash table with linear probing over a
+ * primitive <code>long[]</code> and <code>int[]</code>, so an entry costs 12 bytes and no
+ * objects.
+ * <p>
+ * An expanded board is reopened when it is reached again in fewer steps. With a consistent
+ * heuristic like the manhattan distance this never happens, but the pattern databases are only
+ * admissible, and A* stays optimal with them only if such boards are expanded again.
+ */
+final class BestCostTable {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    /**
+     * keys[i] = the key of the board in slot i
+     */
+    private long[] keys;
+
+    /**
+     * values[i] = 0 if slot i is empty, steps + 1 if the board is open, -(steps + 1) if it was
+     * expanded
+     */
+    private int[] values;
+
+    /**
+     * 64 - log2(capacity), the slot of a key is the top bits of its mixed value
+     */
+    private int shift;
+
+    private int size = 0;
+
+    /**
+     * Creates an empty table
+     */
+    BestCostTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        shift = Long.numberOfLeadingZeros(capacity - 1);
+    }
+
+    /**
+     * Returns the slot of the key, or the empty slot where it should be inserted
+     *
+     * @param key the key of the board
+     * @return the slot index
+     */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+        while (values[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Records a board reached in <code>steps</code> steps, unless it was already reached or
+     * expanded with at most that many steps. An expanded board reached in fewer steps is opened
+     * again.
+     *
+     * @param key   the key of the board
+     * @param steps the number of steps to the board
+     * @return true if the board should be enqueued, false if it is a dominated duplicate
+     */
+    boolean offer(long key, int steps) {
+        int i = slot(key);
+        int value = values[i];
+        if (value == 0) {
+            keys[i] = key;
+            values[i] = steps + 1;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return true;
+        }
+        if (Math.abs(value) <= steps + 1) {
+            return false;
+        }
+        values[i] = steps + 1;
+        return true;
+    }
+
+    /**
+     * Marks a board dequeued with <code>steps</code> steps as expanded, unless it was already
+     * expanded or was reached later in fewer steps
+     *
+     * @param key   the key of the board
+     * @param steps the number of steps of the dequeued node
+     * @return true if the node should be expanded, false if it is stale
+     */
+    boolean close(long key, int steps) {
+        int i = slot(key);
+        if (values[i] != steps + 1) {
+            return false;
+        }
+        values[i] = -(steps + 1);
+        return true;
+    }
+
+    /**
+     * Returns the number of boards in the table
+     *
+     * @return the number of boards seen
+     */
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -12,11 +12,31 @@ import java.util.List;
 public class Board {
 
     /**
-     * Optimization: array elements are shorts, this uses half of the memory than ints, and by
-     * definition, the max board size is 127 * 127 = 16129, so the max element is only 16128 which
-     * fits into a short
+     * Boards up to this dimension are packed into a single long
      */
-    private final short[][] blocks;
+    private static final int MAX_PACKED_DIMENSION = 4;
+
+    /**
+     * Bits of a tile in the packed board
+     */
+    private static final int TILE_BITS = 4;
+
+    private static final long TILE_MASK = (1L << TILE_BITS) - 1;
+
+    /**
+     * Optimization: boards of dimension 4 or less are packed into this long, 4 bits per tile, the
+     * tile of cell <code>c = y * n + x</code> is in bits <code>4c</code> to <code>4c + 3</code>.
+     * A 15-puzzle board is a single long instead of a 4 by 4 short matrix, and moving a tile,
+     * equality and hashing are a few bit operations.
+     */
+    private final long packed;
+
+    /**
+     * The tiles of boards larger than 4 by 4 in row-major order, null for the packed boards. The
+     * elements are shorts: by definition the max board size is 127 * 127 = 16129, so the max
+     * element is 16128 which does not fit into a byte but fits into a short.
+     */
+    private final short[] tiles;
 
     /**
      * dimension of board
@@ -24,23 +44,25 @@ public class Board {
     private final byte dimension;
 
     /**
-     * Empty cell's x coordinate (the 0 valued block)
+     * Row-major index of the empty cell (the 0 valued block)
      */
-    private byte emptyCellX;
+    private final int emptyCell;
 
     /**
-     * Empty cell's y coordinate (the 0 valued block)
+     * Sum of Manhattan distances between blocks and goal, updated by the moves
      */
-    private byte emptyCellY;
+    private final int manhattan;
 
     /**
-     * Copy constructor
-     *
-     * @param other the {@link Board} to copy
+     * Number of blocks out of place, updated by the moves
      */
-    private Board(Board other) {
-        this(other.blocks);
-    }
+    private final int hamming;
+
+    /**
+     * 64-bit key of the board, updated by the moves: the packed long itself for the packed
+     * boards, which identifies them exactly, and the Zobrist hash for the larger ones
+     */
+    private final long key;
 
     /**
      * Construct a board from an n-by-n array of blocks
@@ -48,46 +70,87 @@ public class Board {
      * @param blocks the matrix to use to make a new board
      */
     public Board(int[][] blocks) {
-        CopyResult copyResult = copyOf(blocks);
-        this.blocks = copyResult.blocks;
-        this.emptyCellX = copyResult.emptyCellPosition.x;
-        this.emptyCellY = copyResult.emptyCellPosition.y;
-        this.dimension = (byte) this.blocks.length;
+        int n = blocks.length;
+        long packedBlocks = 0;
+        short[] flatBlocks = n > MAX_PACKED_DIMENSION ? new short[n * n] : null;
+        int empty = -1;
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                int cell = y * n + x;
+                if (flatBlocks == null) {
+                    packedBlocks |= (long) blocks[y][x] << (cell * TILE_BITS);
+                }
+                else {
+                    flatBlocks[cell] = (short) blocks[y][x];
+                }
+                if (blocks[y][x] == 0) {
+                    empty = cell;
+                }
+            }
+        }
+        this.dimension = (byte) n;
+        this.packed = packedBlocks;
+        this.tiles = flatBlocks;
+        this.emptyCell = empty;
+
+        int manhattanSum = 0;
+        int misplaced = 0;
+        long zobrist = 0;
+        for (int cell = 0; cell < n * n; cell++) {
+            manhattanSum += distance(tile(cell), cell);
+            misplaced += misplaced(tile(cell), cell);
+            zobrist ^= zobristKey(cell, tile(cell));
+        }
+        this.manhattan = manhattanSum;
+        this.hamming = misplaced;
+        this.key = flatBlocks == null ? packedBlocks : zobrist;
     }
 
     /**
-     * construct a board from an n-by-n array of blocks
-     * <p>
-     * (where blocks[i][j] = block in y i, xumn * j)
+     * Creates a board from its encoding
      *
-     * @param blocks the matrix to use to make a new board
+     * @param dimension dimension of the board
+     * @param packed    the packed tiles, 0 if <code>tiles</code> is not null
+     * @param tiles     the tiles in row-major order, null for a packed board
+     * @param emptyCell row-major index of the empty cell
+     * @param manhattan sum of Manhattan distances between blocks and goal
+     * @param hamming   number of blocks out of place
+     * @param key       key of the board
      */
-    private Board(short[][] blocks) {
-        CopyResult copyResult = copyOf(blocks);
-        this.blocks = copyResult.blocks;
-        this.dimension = (byte) this.blocks.length;
-        this.emptyCellX = copyResult.emptyCellPosition.x;
-        this.emptyCellY = copyResult.emptyCellPosition.y;
+    private Board(byte dimension, long packed, short[] tiles, int emptyCell, int manhattan,
+                  int hamming, long key) {
+        this.dimension = dimension;
+        this.packed = packed;
+        this.tiles = tiles;
+        this.emptyCell = emptyCell;
+        this.manhattan = manhattan;
+        this.hamming = hamming;
+        this.key = key;
     }
 
     /**
-     * Returns the copy of the <code>blocksToCopy</code>
+     * Returns the Zobrist key of the tile in the cell: a fixed pseudo-random long computed from
+     * the pair (splitmix64 finalizer), so no table of n^4 keys is needed
      *
-     * @param blocksToCopy the blocksToCopy to copy
-     * @return the copy of the <code>blocksToCopy</code>
+     * @param cell   row-major index of the cell
+     * @param number the tile
+     * @return the key of the tile in the cell
      */
-    private CopyResult copyOf(int[][] blocksToCopy) {
-        return new CopyResult(blocksToCopy);
+    private static long zobristKey(int cell, int number) {
+        long z = ((long) cell << 32 | number) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
     }
 
     /**
-     * Returns the copy of the <code>blocksToCopy</code>
+     * Returns the 64-bit key of the board for transposition tables. Equal boards have equal keys,
+     * boards of dimension 4 or less have different keys if they are different.
      *
-     * @param blocksToCopy the blocksToCopy to copy
-     * @return the copy of the <code>blocksToCopy</code>
+     * @return the key of the board
      */
-    private CopyResult copyOf(short[][] blocksToCopy) {
-        return new CopyResult(blocksToCopy);
+    long key() {
+        return key;
     }
 
     public static void main(String[] args) {
@@ -95,29 +158,52 @@ public class Board {
     }
 
     /**
-     * number of blocks out of place
+     * Returns the tile in the cell
      *
-     * @return the hamming distance
+     * @param cell row-major index of the cell
+     * @return the tile, 0 for the empty cell
      */
-    public int hamming() {
+    int tile(int cell) {
+        if (tiles == null) {
+            return (int) (packed >>> (cell * TILE_BITS) & TILE_MASK);
+        }
+        return tiles[cell];
+    }
 
-        int hamming = 0;
-        int required = 1;
-        for (byte y = 0; y < dimension; y++) {
-            for (byte x = 0; x < dimension; x++) {
-                short number = blocks[y][x];
-                if (number != 0 && number != required) {
-                    hamming++;
-                }
-                required++;
-                if (required == dimension * dimension) {
-                    required = 0;
-                }
-            }
+    /**
+     * Returns the Manhattan distance between the tile in the cell and its goal cell
+     *
+     * @param number the tile, 0 for the empty cell
+     * @param cell   row-major index of the cell
+     * @return the distance, 0 for the empty cell
+     */
+    private int distance(int number, int cell) {
+        if (number == 0) {
+            return 0;
         }
+        int dx = Math.abs(cell % dimension - (number - 1) % dimension);
+        int dy = Math.abs(cell / dimension - (number - 1) / dimension);
+        return dx + dy;
+    }
 
-        return hamming;
+    /**
+     * Returns 1 if the tile in the cell is out of place
+     *
+     * @param number the tile, 0 for the empty cell
+     * @param cell   row-major index of the cell
+     * @return 1 if the tile is not the empty cell and not in its goal cell, 0 otherwise
+     */
+    private static int misplaced(int number, int cell) {
+        return number != 0 && number != cell + 1 ? 1 : 0;
+    }
 
+    /**
+     * number of blocks out of place
+     *
+     * @return the hamming distance
+     */
+    public int hamming() {
+        return hamming;
     }
 
     /**
@@ -126,21 +212,6 @@ public class Board {
      * @return sum of Manhattan distances between blocks and goal
      */
     public int manhattan() {
-
-        int manhattan = 0;
-        short requiredNumber = 1;
-        for (byte y = 0; y < dimension; y++) {
-            for (byte x = 0; x < dimension; x++) {
-                short number = blocks[y][x];
-                if (number != requiredNumber && number != 0) {
-                    int dx = Math.abs(x - ((number - 1) % dimension));
-                    int dy = Math.abs(y - ((number - 1) / dimension));
-                    manhattan += dx + dy;
-                }
-                requiredNumber++;
-            }
-        }
-
         return manhattan;
     }
 
@@ -150,7 +221,7 @@ public class Board {
      * @return true if the board is the goal board
      */
     public boolean isGoal() {
-        return manhattan() == 0;
+        return manhattan == 0;
     }
 
     /**
@@ -170,16 +241,19 @@ public class Board {
         }
 
         Board other = (Board) obj;
-        if (other.dimension != this.dimension) {
-            return false;
-        }
+        return other.dimension == this.dimension && other.packed == this.packed
+                && Arrays.equals(this.tiles, other.tiles);
+    }
 
-        for (byte y = 0; y < dimension; y++) {
-            if (!Arrays.equals(this.blocks[y], other.blocks[y])) {
-                return false;
-            }
-        }
-        return true;
+    /**
+     * Returns the hash code of the board, consistent with {@link #equals(Object)}
+     *
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        // the multiplication spreads the low tiles of a packed board into the high bits as well
+        return Long.hashCode(key * 0x9E3779B97F4A7C15L);
     }
 
     /**
@@ -189,101 +263,130 @@ public class Board {
      */
     public Iterable<Board> neighbors() {
 
-        List<Board> boards = new ArrayList<>();
-        Position emptyCellPosition = new Position(emptyCellX, emptyCellY);
-        List<Direction> emptyCellNeighbours = emptyCellPosition.getNeighbourDirections();
-        for (Direction direction : emptyCellNeighbours) {
-            Board neighbour = new Board(this);
-            neighbour.moveEmptyCell(direction);
-            boards.add(neighbour);
+        List<Board> boards = new ArrayList<>(4);
+        int emptyX = emptyCell % dimension;
+        int emptyY = emptyCell / dimension;
+
+        // north
+        if (emptyY > 0) {
+            boards.add(swap(emptyCell, emptyCell - dimension, emptyCell - dimension));
+        }
+        // south
+        if (emptyY < dimension - 1) {
+            boards.add(swap(emptyCell, emptyCell + dimension, emptyCell + dimension));
+        }
+        // west
+        if (emptyX > 0) {
+            boards.add(swap(emptyCell, emptyCell - 1, emptyCell - 1));
+        }
+        // east
+        if (emptyX < dimension - 1) {
+            boards.add(swap(emptyCell, emptyCell + 1, emptyCell + 1));
         }
 
         return boards;
     }
 
     /**
-     * a board that is obtained by exchanging any pair of blocks
+     * Returns the board with the empty cell moved to a neighbouring cell
      *
-     * @return a board that is obtained by exchanging any pair of blocks
+     * @param cell row-major index of a cell next to the empty cell
+     * @return the new board
      */
-    public Board twin() {
-        List<Position> positions = new ArrayList<>();
-
-        Position emptyCellPosition = new Position(emptyCellX, emptyCellY);
-        for (byte y = 0; y < dimension; y++) {
-            for (byte x = 0; x < dimension; x++) {
-                if (!emptyCellPosition.equals(x, y)) {
-                    positions.add(new Position(x, y));
-                    if (positions.size() == 2) {
-                        break;
-                    }
-                }
-            }
-        }
-
-        Board twin = new Board(this);
-        twin.swap(positions.get(0), positions.get(1));
-        return twin;
+    Board moveEmptyCell(int cell) {
+        return swap(emptyCell, cell, cell);
     }
 
     /**
-     * Moves the empy cell in the given direction
+     * Returns the tiles in row-major order
      *
-     * @param direction the {@link Direction}
+     * @return a new array of the tiles, 0 for the empty cell
      */
-    private void moveEmptyCell(Direction direction) {
-        switch (direction) {
-            case NORTH:
-                swapEmptyCell(emptyCellX, (byte) (emptyCellY - 1));
-                break;
-            case SOUTH:
-                swapEmptyCell(emptyCellX, (byte) (emptyCellY + 1));
-                break;
-            case EAST:
-                swapEmptyCell((byte) (emptyCellX + 1), emptyCellY);
-                break;
-            case WEST:
-                swapEmptyCell((byte) (emptyCellX - 1), emptyCellY);
-                break;
+    int[] tiles() {
+        int[] result = new int[dimension * dimension];
+        for (int cell = 0; cell < result.length; cell++) {
+            result[cell] = tile(cell);
         }
+        return result;
     }
 
     /**
-     * Swaps two blocks
+     * Returns true if the goal can be reached from this board. A move of the empty cell along a
+     * row keeps the order of the blocks, a move along a column moves one block over n - 1 others.
+     * So for odd n the parity of the inversions never changes, and for even n the parity of the
+     * inversions plus the row of the empty cell never changes, and the goal has 0 inversions with
+     * the empty cell in the last row. The parity of the inversions is the parity of the
+     * permutation of the blocks, which is counted from its cycles in O(n^2).
      *
-     * @param p1 {@link Position} of the first block
-     * @param p2 {@link Position} of the second block
+     * @return true if the board is solvable
      */
-    private void swap(Position p1, Position p2) {
-        short tmp = blocks[p1.y][p1.x];
-        blocks[p1.y][p1.x] = blocks[p2.y][p2.x];
-        blocks[p2.y][p2.x] = tmp;
+    boolean isSolvable() {
+        int cells = dimension * dimension;
+        // order[i] = the goal index of the i-th block in row-major order, skipping the empty cell
+        int[] order = new int[cells - 1];
+        for (int cell = 0, i = 0; cell < cells; cell++) {
+            if (cell != emptyCell) {
+                order[i++] = tile(cell) - 1;
+            }
+        }
+        boolean[] visited = new boolean[order.length];
+        int cycles = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (!visited[i]) {
+                cycles++;
+                for (int j = i; !visited[j]; j = order[j]) {
+                    visited[j] = true;
+                }
+            }
+        }
+        int parity = order.length - cycles;
+        if (dimension % 2 == 0) {
+            parity += dimension - 1 - emptyCell / dimension;
+        }
+        return parity % 2 == 0;
     }
 
     /**
-     * Swaps the empty cell with the new coordinates
+     * a board that is obtained by exchanging any pair of blocks
      *
-     * @param newX new x
-     * @param newY new y
+     * @return a board that is obtained by exchanging any pair of blocks
      */
-    private void swapEmptyCell(byte newX, byte newY) {
-        swap(emptyCellX, emptyCellY, newX, newY);
-        emptyCellX = newX;
-        emptyCellY = newY;
+    public Board twin() {
+        // the first two cells that are not empty
+        int first = emptyCell == 0 ? 1 : 0;
+        int second = emptyCell == first + 1 ? first + 2 : first + 1;
+        return swap(first, second, emptyCell);
     }
 
     /**
-     * Swaps two blocks
+     * Returns the board with the tiles of the two cells exchanged
      *
-     * @param x1 x coordinate of the first block
-     * @param y1 y coordinate of the first block
-     * @param x2 x coordinate of the second block
-     * @param y2 y coordinate of the second block
+     * @param cell1        row-major index of the first cell
+     * @param cell2        row-major index of the second cell
+     * @param newEmptyCell the empty cell after the exchange
+     * @return the new board
      */
-    private void swap(byte x1, byte y1, byte x2, byte y2) {
-        short tmp = blocks[y1][x1];
-        blocks[y1][x1] = blocks[y2][x2];
-        blocks[y2][x2] = tmp;
+    private Board swap(int cell1, int cell2, int newEmptyCell) {
+        int number1 = tile(cell1);
+        int number2 = tile(cell2);
+        // only the two exchanged tiles move, so only their terms of the sums change
+        int newManhattan = manhattan - distance(number1, cell1) - distance(number2, cell2)
+                + distance(number1, cell2) + distance(number2, cell1);
+        int newHamming = hamming - misplaced(number1, cell1) - misplaced(number2, cell2)
+                + misplaced(number1, cell2) + misplaced(number2, cell1);
+        if (tiles == null) {
+            long difference = number1 ^ number2;
+            long swapped = packed ^ (difference << (cell1 * TILE_BITS)
+                    | difference << (cell2 * TILE_BITS));
+            return new Board(dimension, swapped, null, newEmptyCell, newManhattan, newHamming,
+                             swapped);
+        }
+        short[] swapped = tiles.clone();
+        swapped[cell1] = (short) number2;
+        swapped[cell2] = (short) number1;
+        long newKey = key ^ zobristKey(cell1, number1) ^ zobristKey(cell2, number2)
+                ^ zobristKey(cell1, number2) ^ zobristKey(cell2, number1);
+        return new Board(dimension, 0, swapped, newEmptyCell, newManhattan, newHamming, newKey);
     }
 
     /**
@@ -295,9 +398,9 @@ public class Board {
         StringBuilder sb = new StringBuilder();
 
         sb.append(dimension + "\r\n");
-        for (byte y = 0; y < dimension; y++) {
-            for (byte x = 0; x < dimension; x++) {
-                sb.append(String.format("%1$6s", blocks[y][x]));
+        for (int y = 0; y < dimension; y++) {
+            for (int x = 0; x < dimension; x++) {
+                sb.append(String.format("%1$6s", tile(y * dimension + x)));
             }
             sb.append("\r\n");
         }
@@ -312,119 +415,4 @@ public class Board {
     public int dimension() {
         return this.dimension;
     }
-
-    /**
-     * Directions of movement of the blocks
-     */
-    private enum Direction {
-        NORTH, EAST, WEST, SOUTH
-    }
-
-    /**
-     * Position of a block
-     */
-    private class Position {
-        private final byte x;
-        private final byte y;
-
-        public Position() {
-            x = 0;
-            y = 0;
-        }
-
-        public Position(int x, int y) {
-            this.x = (byte) x;
-            this.y = (byte) y;
-        }
-
-        @Override
-        public String toString() {
-            return "(" + x + "," + y + ")";
-        }
-
-        public boolean equals(int positionX, int positionY) {
-            return this.x == positionX && this.y == positionY;
-        }
-
-        /**
-         * Returns the {@link List} of all valid neighboring directions
-         *
-         * @return the {@link List} of all valid neighboring directions
-         */
-        public List<Direction> getNeighbourDirections() {
-            List<Direction> result = new ArrayList<>();
-
-            if (isValid(x, y)) {
-
-                // north
-                if (isValid(x, y - 1)) {
-                    result.add(Direction.NORTH);
-                }
-                // south
-                if (isValid(x, y + 1)) {
-                    result.add(Direction.SOUTH);
-                }
-                // west
-                if (isValid(x - 1, y)) {
-                    result.add(Direction.WEST);
-                }
-                // east
-                if (isValid(x + 1, y)) {
-                    result.add(Direction.EAST);
-                }
-            }
-            return result;
-        }
-
-        /**
-         * Returns true if the position is valid
-         *
-         * @param positionX column
-         * @param positionY row
-         * @return true if the position is valid
-         */
-        public boolean isValid(int positionX, int positionY) {
-            boolean valid = positionX >= 0 && positionX < dimension && positionY >= 0
-                    && positionY < dimension;
-            return valid;
-        }
-    }
-
-    /**
-     * Value objects for storing the result of a blocks copy operation
-     */
-    private class CopyResult {
-        private final short[][] blocks;
-        private final Position emptyCellPosition;
-
-        public CopyResult(int[][] blocksToCopy) {
-            Position position = null;
-            this.blocks = new short[blocksToCopy.length][blocksToCopy.length];
-            for (byte y = 0; y < blocksToCopy.length; y++) {
-                for (byte x = 0; x < blocksToCopy.length; x++) {
-                    this.blocks[y][x] = (short) blocksToCopy[y][x];
-                    if (blocksToCopy[y][x] == 0) {
-                        position = new Position(x, y);
-                    }
-                }
-            }
-
-            this.emptyCellPosition = position;
-        }
-
-        public CopyResult(short[][] blocksToCopy) {
-            Position position = null;
-            this.blocks = new short[blocksToCopy.length][blocksToCopy.length];
-            for (byte y = 0; y < blocksToCopy.length; y++) {
-                for (byte x = 0; x < blocksToCopy.length; x++) {
-                    this.blocks[y][x] = blocksToCopy[y][x];
-                    if (blocksToCopy[y][x] == 0) {
-                        position = new Position(x, y);
-                    }
-                }
-            }
-
-            this.emptyCellPosition = position;
-        }
-    }
 }
@@ -0,0 +1,154 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Open list of the A* search for small integer priorities. An item is stored in the LIFO bucket
+ * of its (f, g) pair, where f = g + h is the priority and g is the number of steps. The minimum is
+ * taken from the lowest non-empty f, and within it from the highest non-empty g, so the ties go
+ * to the node closest to the goal and the search dives instead of spreading. Insert and remove
+ * are O(1) apart from moving the bucket pointers, which only move over the range of the
+ * priorities. {@link #clear()} keeps the bucket arrays, so a queue can be reused across solves
+ * without allocating them again.
+ *
+ * @param <Item> the type of the items
+ */
+final class BucketQueue<Item> {
+
+    private static final int INITIAL_BUCKET_CAPACITY = 16;
+
+    /**
+     * buckets[f][g] = the items of the bucket, the top of the stack is at counts[f][g] - 1
+     */
+    private Object[][][] buckets = new Object[0][][];
+
+    /**
+     * counts[f][g] = the number of items in the bucket
+     */
+    private int[][] counts = new int[0][];
+
+    /**
+     * fCounts[f] = the number of items with priority f
+     */
+    private int[] fCounts = new int[0];
+
+    /**
+     * maxG[f] = a g at or above the highest non-empty bucket of priority f
+     */
+    private int[] maxG = new int[0];
+
+    /**
+     * A priority at or below the lowest non-empty one
+     */
+    private int minF = 0;
+
+    private int size = 0;
+
+    /**
+     * Adds the item
+     *
+     * @param item the item
+     * @param f    the priority of the item, g + h
+     * @param g    the number of steps of the item, 0 <= g <= f
+     * @throws IllegalArgumentException if g < 0 or g > f
+     */
+    void insert(Item item, int f, int g) {
+        if (g < 0 || g > f) {
+            throw new IllegalArgumentException("should be 0 <= g <= f: g = " + g + ", f = " + f);
+        }
+        if (f >= buckets.length) {
+            int length = Math.max(f + 1, buckets.length * 2);
+            buckets = Arrays.copyOf(buckets, length);
+            counts = Arrays.copyOf(counts, length);
+            fCounts = Arrays.copyOf(fCounts, length);
+            maxG = Arrays.copyOf(maxG, length);
+        }
+        if (buckets[f] == null) {
+            // g <= f, so f + 1 buckets hold every item of priority f
+            buckets[f] = new Object[f + 1][];
+            counts[f] = new int[f + 1];
+        }
+        Object[] bucket = buckets[f][g];
+        int count = counts[f][g];
+        if (bucket == null || count == bucket.length) {
+            bucket = bucket == null ? new Object[INITIAL_BUCKET_CAPACITY]
+                                    : Arrays.copyOf(bucket, count * 2);
+            buckets[f][g] = bucket;
+        }
+        bucket[count] = item;
+        counts[f][g] = count + 1;
+        fCounts[f]++;
+        maxG[f] = Math.max(maxG[f], g);
+        if (size == 0 || f < minF) {
+            minF = f;
+        }
+        size++;
+    }
+
+    /**
+     * Removes the last inserted item of the highest g among the lowest priority
+     *
+     * @return the removed item
+     * @throws NoSuchElementException if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    Item delMin() {
+        if (size == 0) {
+            throw new NoSuchElementException("the queue is empty");
+        }
+        while (fCounts[minF] == 0) {
+            minF++;
+        }
+        int f = minF;
+        int g = maxG[f];
+        while (counts[f][g] == 0) {
+            g--;
+        }
+        maxG[f] = g;
+
+        int count = --counts[f][g];
+        Object item = buckets[f][g][count];
+        buckets[f][g][count] = null;
+        fCounts[f]--;
+        size--;
+        return (Item) item;
+    }
+
+    /**
+     * Returns true if the queue is empty
+     *
+     * @return true if there are no items
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of items
+     *
+     * @return the number of items
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all the items, the bucket arrays are kept for the next use
+     */
+    void clear() {
+        for (int f = 0; f < buckets.length && size > 0; f++) {
+            if (fCounts[f] == 0) {
+                continue;
+            }
+            for (int g = 0; g <= maxG[f]; g++) {
+                if (counts[f][g] > 0) {
+                    Arrays.fill(buckets[f][g], 0, counts[f][g], null);
+                    size -= counts[f][g];
+                    counts[f][g] = 0;
+                }
+            }
+            fCounts[f] = 0;
+        }
+        Arrays.fill(maxG, 0);
+        minF = 0;
+    }
+}
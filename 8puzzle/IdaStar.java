@@ -0,0 +1,218 @@
+import java.util.Arrays;
+
+/**
+ * Iterative deepening A* on a single mutable board. Every iteration is a depth-first search that
+ * cuts the paths whose steps + estimate exceed the bound, the next bound is the lowest cut value.
+ * The moves are made and unmade in place on an <code>int[]</code> of the tiles, the manhattan
+ * distance is updated with the distance change of the moved tile, and the move back to the
+ * previous empty cell is never tried. With pattern databases only the pattern of the moved tile
+ * is looked up again. The memory is proportional to the solution depth and the search allocates
+ * nothing but the path array of each iteration.
+ * <p>
+ * The search never ends on an unsolvable board, check {@link Board#isSolvable()} first.
+ */
+final class IdaStar {
+
+    /**
+     * Returned by the search when the goal is reached
+     */
+    private static final int FOUND = -1;
+
+    private final int dimension;
+
+    /**
+     * tiles[cell] = the tile in the row-major cell, 0 for the empty cell
+     */
+    private final int[] tiles;
+
+    /**
+     * goalX[tile], goalY[tile] = the goal column and row of the tile
+     */
+    private final int[] goalX;
+    private final int[] goalY;
+
+    /**
+     * position[tile] = the row-major cell of the tile
+     */
+    private final int[] position;
+
+    /**
+     * The pattern databases, null for the manhattan distance alone
+     */
+    private final PatternDatabase patternDatabase;
+
+    /**
+     * extras[p] = the pattern database nibble of pattern p on the current board
+     */
+    private final int[] extras;
+
+    /**
+     * Row-major index of the empty cell
+     */
+    private int emptyCell;
+
+    /**
+     * path[i] = the empty cell after move i of the current path
+     */
+    private int[] path = new int[0];
+
+    /**
+     * Number of moves of the solution, when found
+     */
+    private int pathLength;
+
+    /**
+     * Creates the search for the board
+     *
+     * @param initial         the board to solve, it must be solvable
+     * @param patternDatabase the pattern databases of the dimension of the board, null to use
+     *                        the manhattan distance alone
+     */
+    IdaStar(Board initial, PatternDatabase patternDatabase) {
+        this.dimension = initial.dimension();
+        this.tiles = initial.tiles();
+        this.patternDatabase = patternDatabase;
+        this.goalX = new int[tiles.length];
+        this.goalY = new int[tiles.length];
+        for (int number = 1; number < tiles.length; number++) {
+            goalX[number] = (number - 1) % dimension;
+            goalY[number] = (number - 1) / dimension;
+        }
+        this.position = new int[tiles.length];
+        for (int cell = 0; cell < tiles.length; cell++) {
+            position[tiles[cell]] = cell;
+        }
+        this.emptyCell = position[0];
+        this.extras = new int[patternDatabase == null ? 0 : patternDatabase.patterns()];
+        for (int p = 0; p < extras.length; p++) {
+            extras[p] = patternDatabase.extra(p, position);
+        }
+    }
+
+    /**
+     * Finds a shortest solution
+     *
+     * @return the empty cell after each move of the solution, in order
+     */
+    int[] solve() {
+        int manhattan = 0;
+        for (int cell = 0; cell < tiles.length; cell++) {
+            manhattan += distance(tiles[cell], cell);
+        }
+        int extra = 0;
+        for (int value : extras) {
+            extra += value;
+        }
+        int bound = manhattan + 2 * extra;
+        while (true) {
+            // a move is made only below the bound, so the path never gets longer than the bound
+            if (path.length < bound) {
+                path = new int[bound];
+            }
+            int next = search(0, manhattan, extra, bound, -1);
+            if (next == FOUND) {
+                return Arrays.copyOf(path, pathLength);
+            }
+            bound = next;
+        }
+    }
+
+    /**
+     * Returns the manhattan distance of the tile in the cell from its goal cell
+     *
+     * @param number the tile
+     * @param cell   row-major index of the cell
+     * @return the distance, 0 for the empty cell
+     */
+    private int distance(int number, int cell) {
+        if (number == 0) {
+            return 0;
+        }
+        return Math.abs(cell % dimension - goalX[number])
+                + Math.abs(cell / dimension - goalY[number]);
+    }
+
+    /**
+     * Searches below the current board depth-first
+     *
+     * @param steps         the number of moves made so far
+     * @param manhattan     the manhattan distance of the current board
+     * @param extra         the sum of the pattern database nibbles of the current board
+     * @param bound         the bound of steps + estimate of the iteration
+     * @param previousEmpty the empty cell before the last move, -1 at the start
+     * @return {@link #FOUND}, or the lowest steps + estimate above the bound
+     */
+    private int search(int steps, int manhattan, int extra, int bound, int previousEmpty) {
+        int estimate = steps + manhattan + 2 * extra;
+        if (estimate > bound) {
+            return estimate;
+        }
+        if (manhattan == 0) {
+            pathLength = steps;
+            return FOUND;
+        }
+        int emptyX = emptyCell % dimension;
+        int emptyY = emptyCell / dimension;
+        int min = Integer.MAX_VALUE;
+
+        // north, south, west, east, like Board.neighbors()
+        for (int direction = 0; direction < 4; direction++) {
+            int target;
+            if (direction == 0 && emptyY > 0) {
+                target = emptyCell - dimension;
+            }
+            else if (direction == 1 && emptyY < dimension - 1) {
+                target = emptyCell + dimension;
+            }
+            else if (direction == 2 && emptyX > 0) {
+                target = emptyCell - 1;
+            }
+            else if (direction == 3 && emptyX < dimension - 1) {
+                target = emptyCell + 1;
+            }
+            else {
+                continue;
+            }
+            if (target == previousEmpty) {
+                continue;
+            }
+
+            // make the move
+            int empty = emptyCell;
+            int number = tiles[target];
+            int movedManhattan = manhattan - distance(number, target) + distance(number, empty);
+            tiles[empty] = number;
+            tiles[target] = 0;
+            position[number] = empty;
+            position[0] = target;
+            emptyCell = target;
+            path[steps] = target;
+            int movedExtra = extra;
+            int pattern = 0;
+            int previousNibble = 0;
+            if (patternDatabase != null) {
+                pattern = patternDatabase.patternOf(number);
+                previousNibble = extras[pattern];
+                extras[pattern] = patternDatabase.extra(pattern, position);
+                movedExtra += extras[pattern] - previousNibble;
+            }
+
+            int next = search(steps + 1, movedManhattan, movedExtra, bound, empty);
+            if (next == FOUND) {
+                return FOUND;
+            }
+
+            // unmake the move
+            tiles[target] = number;
+            tiles[empty] = 0;
+            position[number] = target;
+            position[0] = empty;
+            emptyCell = empty;
+            if (patternDatabase != null) {
+                extras[pattern] = previousNibble;
+            }
+            min = Math.min(min, next);
+        }
+        return min;
+    }
+}
@@ -0,0 +1,431 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Disjoint additive pattern databases of the 8-puzzle and the 15-puzzle. The tiles are split into
+ * disjoint patterns (4-4 on 3x3, 6-6-3 on 4x4), and the database of a pattern holds, for every
+ * placement of its tiles, the least number of moves of pattern tiles that brings them to their
+ * goal cells, with the other tiles ignored. Moves of the other tiles are free, so the values of
+ * the patterns can be added and the sum is still an admissible estimate. It is not consistent:
+ * the value of a placement is the least over the cells of the empty cell, so a single move can
+ * lower the estimate by more than 1 (by up to 7 on 3x3). The A* search of {@link Solver}
+ * reopens the boards reached again in fewer steps to stay optimal, see {@link BestCostTable}.
+ * <p>
+ * A table is built by a retrograde 0-1 breadth-first search from the goal over the (placement,
+ * empty cell) states: a move of a pattern tile costs 1, a move of the empty cell over an ignored
+ * tile costs 0. The value of a placement minus the manhattan distance of its tiles is even and
+ * non-negative, so the table keeps <code>min(15, (value - manhattan) / 2)</code> in a nibble per
+ * placement: 2.8 MB for a 6-tile pattern of the 15-puzzle. The estimate of a board is then its
+ * manhattan distance + 2 * the sum of the nibbles of its patterns.
+ * <p>
+ * The tables are written once into the directory of the <code>puzzle.pdb.dir</code> system
+ * property (default: the temporary directory), readable by every user, and memory-mapped
+ * read-only, so every solver of the JVM and every process on the machine shares the same pages.
+ * A file with a wrong header or size is rebuilt. The databases of a dimension
+ * are loaded once per JVM and cached.
+ */
+final class PatternDatabase {
+
+    private static final long MAGIC = 0x38505A4C50444231L;
+    private static final int UNSET = -1;
+    private static final int MAX_NIBBLE = 15;
+
+    /**
+     * rw-r--r--, the tables are shared by the processes of every user
+     */
+    private static final Set<PosixFilePermission> TABLE_PERMISSIONS =
+            PosixFilePermissions.fromString("rw-r--r--");
+
+    /**
+     * PATTERNS[n] = the disjoint patterns of the n-by-n puzzle, null if there are none
+     */
+    private static final int[][][] PATTERNS = {
+            null,
+            null,
+            null,
+            {{1, 2, 3, 4}, {5, 6, 7, 8}},
+            {{1, 5, 6, 9, 10, 13}, {7, 8, 11, 12, 14, 15}, {2, 3, 4}}
+    };
+
+    private static final ConcurrentHashMap<Integer, PatternDatabase> CACHE =
+            new ConcurrentHashMap<>();
+
+    private final int dimension;
+
+    /**
+     * patterns[p] = the tiles of pattern p
+     */
+    private final int[][] patterns;
+
+    /**
+     * patternOf[tile] = the pattern of the tile
+     */
+    private final int[] patternOf;
+
+    /**
+     * tables[p] = the nibbles of pattern p, indexed by the rank of the placement
+     */
+    private final ByteBuffer[] tables;
+
+    private PatternDatabase(int dimension, Path directory) throws IOException {
+        this.dimension = dimension;
+        this.patterns = PATTERNS[dimension];
+        this.patternOf = new int[dimension * dimension];
+        this.tables = new ByteBuffer[patterns.length];
+        for (int p = 0; p < patterns.length; p++) {
+            for (int tile : patterns[p]) {
+                patternOf[tile] = p;
+            }
+            tables[p] = load(directory, patterns[p]);
+        }
+    }
+
+    /**
+     * Returns the pattern databases of the n-by-n puzzle, building their files on the first use
+     *
+     * @param dimension the dimension of the boards
+     * @return the pattern databases
+     * @throws IllegalArgumentException if there are no patterns for the dimension
+     * @throws UncheckedIOException     if the tables can not be written or mapped
+     */
+    static PatternDatabase forDimension(int dimension) {
+        if (dimension >= PATTERNS.length || PATTERNS[dimension] == null) {
+            throw new IllegalArgumentException(
+                    "no pattern databases for dimension " + dimension + ", only for 3 and 4");
+        }
+        return CACHE.computeIfAbsent(dimension, n -> {
+            String directory = System.getProperty("puzzle.pdb.dir",
+                                                  System.getProperty("java.io.tmpdir"));
+            try {
+                return new PatternDatabase(n, Paths.get(directory));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Returns the estimated number of moves to the goal of the board
+     *
+     * @param board a board of the dimension of the databases
+     * @return manhattan distance + 2 * the sum of the nibbles of the patterns
+     */
+    int estimate(Board board) {
+        // at most 16 cells, so the cell of every tile fits in a nibble of a long
+        long positions = 0;
+        for (int cell = 0; cell < dimension * dimension; cell++) {
+            positions |= (long) cell << (4 * board.tile(cell));
+        }
+        int extra = 0;
+        for (int p = 0; p < patterns.length; p++) {
+            int[] tiles = patterns[p];
+            int rank = 0;
+            int used = 0;
+            for (int i = 0; i < tiles.length; i++) {
+                int cell = (int) (positions >>> (4 * tiles[i])) & 0xF;
+                rank = rank * (dimension * dimension - i) + cell
+                        - Integer.bitCount(used & ((1 << cell) - 1));
+                used |= 1 << cell;
+            }
+            extra += nibble(p, rank);
+        }
+        return board.manhattan() + 2 * extra;
+    }
+
+    /**
+     * Returns the pattern of the tile
+     *
+     * @param tile a tile, not 0
+     * @return the index of the pattern of the tile
+     */
+    int patternOf(int tile) {
+        return patternOf[tile];
+    }
+
+    /**
+     * Returns the number of patterns
+     *
+     * @return the number of patterns
+     */
+    int patterns() {
+        return patterns.length;
+    }
+
+    /**
+     * Returns half of the moves the pattern needs over the manhattan distance of its tiles
+     *
+     * @param pattern  the index of the pattern
+     * @param position position[tile] = the row-major cell of the tile
+     * @return the nibble of the placement of the pattern
+     */
+    int extra(int pattern, int[] position) {
+        int[] tiles = patterns[pattern];
+        int cells = dimension * dimension;
+        int rank = 0;
+        int used = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            int cell = position[tiles[i]];
+            rank = rank * (cells - i) + cell - Integer.bitCount(used & ((1 << cell) - 1));
+            used |= 1 << cell;
+        }
+        return nibble(pattern, rank);
+    }
+
+    /**
+     * Returns the nibble of the placement in the table of the pattern
+     *
+     * @param pattern the index of the pattern
+     * @param rank    the rank of the placement of the pattern tiles
+     * @return the nibble of the placement
+     */
+    private int nibble(int pattern, int rank) {
+        return tables[pattern].get(rank >>> 1) >>> ((rank & 1) << 2) & MAX_NIBBLE;
+    }
+
+    /**
+     * Maps the table of the pattern, builds its file first if it does not exist or is not a valid
+     * table of the pattern
+     *
+     * @param directory the directory of the table files
+     * @param tiles     the tiles of the pattern
+     * @return the nibbles of the table
+     * @throws IOException if the file can not be written or mapped
+     */
+    private ByteBuffer load(Path directory, int[] tiles) throws IOException {
+        StringBuilder name = new StringBuilder("puzzle-pdb-" + dimension);
+        for (int tile : tiles) {
+            name.append('-').append(tile);
+        }
+        Path file = directory.resolve(name + ".bin");
+
+        ByteBuffer table = Files.exists(file) ? map(file, tiles) : null;
+        if (table == null) {
+            // a missing, stale or truncated file is rebuilt and replaced
+            write(directory, name.toString(), file, tiles, build(tiles));
+            table = map(file, tiles);
+            if (table == null) {
+                throw new IOException(file + " is not the table of pattern "
+                                              + Arrays.toString(tiles) + " after it was written");
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Writes the table file of the pattern. The file is written next to its final name, made
+     * readable by every user and moved into place, so no process maps a partial table and the
+     * processes of other users can share it.
+     *
+     * @param directory the directory of the table files
+     * @param name      the name of the table file without its extension
+     * @param file      the table file
+     * @param tiles     the tiles of the pattern
+     * @param nibbles   the nibbles of the table
+     * @throws IOException if the file can not be written
+     */
+    private void write(Path directory, String name, Path file, int[] tiles, byte[] nibbles)
+            throws IOException {
+        Path temporary = Files.createTempFile(directory, name + "-", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeLong(MAGIC);
+                out.writeInt(dimension);
+                out.writeInt(tiles.length);
+                for (int tile : tiles) {
+                    out.writeInt(tile);
+                }
+                out.write(nibbles);
+            }
+            // createTempFile makes the file readable by its owner only
+            if (Files.getFileStore(temporary).supportsFileAttributeView(
+                    PosixFileAttributeView.class)) {
+                Files.setPosixFilePermissions(temporary, TABLE_PERMISSIONS);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Maps the table file of the pattern read-only and checks its header and size
+     *
+     * @param file  the table file
+     * @param tiles the tiles of the pattern
+     * @return the nibbles of the table, null if the file is not a complete table of the pattern
+     * @throws IOException if the file can not be mapped
+     */
+    private ByteBuffer map(Path file, int[] tiles) throws IOException {
+        int headerBytes = Long.BYTES + Integer.BYTES * (2 + tiles.length);
+        try (FileChannel channel = FileChannel.open(file)) {
+            if (channel.size() != headerBytes + (placements(tiles.length) + 1) / 2) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            boolean valid = buffer.getLong(0) == MAGIC && buffer.getInt(8) == dimension
+                    && buffer.getInt(12) == tiles.length;
+            for (int i = 0; valid && i < tiles.length; i++) {
+                valid = buffer.getInt(16 + i * Integer.BYTES) == tiles[i];
+            }
+            if (!valid) {
+                return null;
+            }
+            buffer.position(headerBytes);
+            return buffer.slice();
+        }
+    }
+
+    /**
+     * Returns the number of placements of k tiles on the board
+     *
+     * @param k the number of tiles
+     * @return cells * (cells - 1) * ... * (cells - k + 1)
+     */
+    private long placements(int k) {
+        long placements = 1;
+        for (int i = 0; i < k; i++) {
+            placements *= dimension * dimension - i;
+        }
+        return placements;
+    }
+
+    /**
+     * Builds the nibbles of the pattern by the retrograde 0-1 breadth-first search. The states are
+     * processed cost level by cost level, the 0-cost moves go to the stack of the current level
+     * and the pattern moves to the next one, so a state is first taken at its least cost. A state
+     * is an int: 4 bits for the cell of each pattern tile and 4 bits for the empty cell.
+     *
+     * @param tiles the tiles of the pattern
+     * @return the nibbles, indexed by the rank of the placement
+     */
+    private byte[] build(int[] tiles) {
+        int cells = dimension * dimension;
+        int k = tiles.length;
+        int placements = (int) placements(k);
+        byte[] extra = new byte[placements];
+        Arrays.fill(extra, (byte) UNSET);
+        long[] visited = new long[(int) (((long) placements * cells + 63) >>> 6)];
+
+        int goal = cells - 1;
+        for (int i = 0; i < k; i++) {
+            goal |= (tiles[i] - 1) << (4 * (i + 1));
+        }
+        IntStack current = new IntStack();
+        IntStack next = new IntStack();
+        current.push(goal);
+
+        for (int cost = 0; !current.isEmpty(); cost++) {
+            while (!current.isEmpty()) {
+                int state = current.pop();
+                int empty = state & 0xF;
+                int rank = 0;
+                int used = 0;
+                int manhattan = 0;
+                for (int i = 0; i < k; i++) {
+                    int cell = state >>> (4 * (i + 1)) & 0xF;
+                    rank = rank * (cells - i) + cell - Integer.bitCount(used & ((1 << cell) - 1));
+                    used |= 1 << cell;
+                    manhattan += Math.abs(cell % dimension - (tiles[i] - 1) % dimension)
+                            + Math.abs(cell / dimension - (tiles[i] - 1) / dimension);
+                }
+                long index = (long) rank * cells + empty;
+                if ((visited[(int) (index >>> 6)] & 1L << index) != 0) {
+                    continue;
+                }
+                visited[(int) (index >>> 6)] |= 1L << index;
+                if (extra[rank] == UNSET) {
+                    extra[rank] = (byte) Math.min(MAX_NIBBLE, (cost - manhattan) / 2);
+                }
+
+                int emptyX = empty % dimension;
+                int emptyY = empty / dimension;
+                for (int direction = 0; direction < 4; direction++) {
+                    int target;
+                    if (direction == 0 && emptyY > 0) {
+                        target = empty - dimension;
+                    }
+                    else if (direction == 1 && emptyY < dimension - 1) {
+                        target = empty + dimension;
+                    }
+                    else if (direction == 2 && emptyX > 0) {
+                        target = empty - 1;
+                    }
+                    else if (direction == 3 && emptyX < dimension - 1) {
+                        target = empty + 1;
+                    }
+                    else {
+                        continue;
+                    }
+                    if ((used & 1 << target) == 0) {
+                        long targetIndex = (long) rank * cells + target;
+                        if ((visited[(int) (targetIndex >>> 6)] & 1L << targetIndex) == 0) {
+                            current.push(state & ~0xF | target);
+                        }
+                        continue;
+                    }
+                    // the pattern tile on the target cell moves into the empty cell
+                    for (int i = 0; i < k; i++) {
+                        int shift = 4 * (i + 1);
+                        if ((state >>> shift & 0xF) == target) {
+                            next.push(state & ~(0xF << shift) & ~0xF | empty << shift | target);
+                            break;
+                        }
+                    }
+                }
+            }
+            IntStack swap = current;
+            current = next;
+            next = swap;
+        }
+
+        byte[] nibbles = new byte[(placements + 1) / 2];
+        for (int rank = 0; rank < placements; rank++) {
+            // a placement that was not reached gets 0, which is still admissible
+            int nibble = extra[rank] == UNSET ? 0 : extra[rank];
+            nibbles[rank >>> 1] |= (byte) (nibble << ((rank & 1) << 2));
+        }
+        return nibbles;
+    }
+
+    /**
+     * Growable stack of ints
+     */
+    private static final class IntStack {
+        private int[] elements = new int[1 << 10];
+        private int size = 0;
+
+        void push(int value) {
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, size * 2);
+            }
+            elements[size++] = value;
+        }
+
+        int pop() {
+            return elements[--size];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -1,5 +1,4 @@
 import edu.princeton.cs.algs4.In;
-import edu.princeton.cs.algs4.MinPQ;
 import edu.princeton.cs.algs4.StdOut;
 
 import java.util.Deque;
@@ -7,19 +6,110 @@ import java.util.LinkedList;
 
 public class Solver {
 
+    /**
+     * The search algorithm of the solver
+     */
+    public enum Algorithm {
+        /**
+         * A* with a priority queue of search nodes, keeps every generated board
+         */
+        A_STAR,
+
+        /**
+         * Iterative deepening A* on a single mutable board, the memory is proportional to the
+         * solution depth
+         */
+        IDA_STAR
+    }
+
+    /**
+     * The estimate of the number of moves from a board to the goal
+     */
+    public enum Heuristic {
+        /**
+         * Sum of the Manhattan distances of the blocks from their goal cells
+         */
+        MANHATTAN,
+
+        /**
+         * Sum of the additive pattern databases of the dimension, only for 3x3 and 4x4 boards
+         */
+        PATTERN_DATABASE
+    }
+
+    /**
+     * The open list of the A* searches of each thread, its buckets are reused across solves
+     */
+    private static final ThreadLocal<BucketQueue<SearchNode>> OPEN_LIST =
+            ThreadLocal.withInitial(BucketQueue::new);
+
     private Deque<Board> solutionSteps = new LinkedList<Board>();
 
+    /**
+     * The pattern databases of the {@link Heuristic#PATTERN_DATABASE} heuristic, null for the
+     * manhattan distance
+     */
+    private final PatternDatabase patternDatabase;
+
     // find a solution to the initial board (using the A* algorithm)
     public Solver(Board initial) {
+        this(initial, Algorithm.A_STAR);
+    }
+
+    /**
+     * Finds a solution to the initial board with the given algorithm
+     *
+     * @param initial   the initial board
+     * @param algorithm the search algorithm
+     * @throws IllegalArgumentException if initial or algorithm is null
+     */
+    public Solver(Board initial, Algorithm algorithm) {
+        this(initial, algorithm, Heuristic.MANHATTAN);
+    }
+
+    /**
+     * Finds a solution to the initial board with the given algorithm and heuristic
+     *
+     * @param initial   the initial board
+     * @param algorithm the search algorithm
+     * @param heuristic the estimate of the moves to the goal
+     * @throws IllegalArgumentException if an argument is null, or there are no pattern databases
+     *                                  for the dimension of a solvable board
+     */
+    public Solver(Board initial, Algorithm algorithm, Heuristic heuristic) {
         if (initial == null) {
             throw new IllegalArgumentException("initial board should not be null!");
         }
+        if (algorithm == null) {
+            throw new IllegalArgumentException("algorithm should not be null!");
+        }
+        if (heuristic == null) {
+            throw new IllegalArgumentException("heuristic should not be null!");
+        }
+        // the parity of the board tells up front whether the goal can be reached, before the
+        // pattern databases are loaded or built
+        if (!initial.isSolvable()) {
+            patternDatabase = null;
+            solutionSteps = null;
+            return;
+        }
+        patternDatabase = heuristic == Heuristic.PATTERN_DATABASE
+                          ? PatternDatabase.forDimension(initial.dimension()) : null;
+        if (algorithm == Algorithm.IDA_STAR) {
+            Board board = initial;
+            solutionSteps.addLast(board);
+            for (int emptyCell : new IdaStar(initial, patternDatabase).solve()) {
+                board = board.moveEmptyCell(emptyCell);
+                solutionSteps.addLast(board);
+            }
+        }
+        else {
+            SearchNode finalSolution = solve(initial);
+            while (finalSolution != null && finalSolution.steps >= 0) {
 
-        SearchNode finalSolution = solve(initial);
-        while (finalSolution != null && finalSolution.steps >= 0) {
-
-            solutionSteps.addFirst(finalSolution.board);
-            finalSolution = finalSolution.predecessor;
+                solutionSteps.addFirst(finalSolution.board);
+                finalSolution = finalSolution.predecessor;
+            }
         }
         if (solutionSteps.size() == 0) {
             solutionSteps = null;
@@ -29,64 +119,86 @@ public class Solver {
     /**
      * Solves the puzzle, returns the final {@link SearchNode}
      *
-     * @param initial the initial {@link SearchNode}
+     * @param initial the initial board, it must be solvable
      * @return the final {@link SearchNode}
      */
     private SearchNode solve(Board initial) {
 
-        MinPQ<SearchNode> normalPQ = new MinPQ<>();
-        MinPQ<SearchNode> alternativePQ = new MinPQ<>();
-
-        normalPQ.insert(new SearchNode(0, initial, null));
-        alternativePQ.insert(new SearchNode(0, initial.twin(), null));
-
-        SearchNode normalNode;
-        SearchNode alternativeNode;
-
-        do {
-
-            normalNode = normalPQ.delMin();
-
-            // solve one iteration of normal board
-            Iterable<Board> normalNeighbours = normalNode.board.neighbors();
-            for (Board normalNeighbour : normalNeighbours) {
-                /**
-                 * A critical optimization. Best-first search has one annoying feature:
-                 * search nodes corresponding to the same board are enqueued on the priority queue
-                 * many times. To reduce unnecessary exploration of useless search nodes,
-                 * when considering the neighbors of a search node, don't enqueue a neighbor
-                 * if its board is the same as the board of the predecessor search node.
-                 */
-                if (normalNode.predecessor == null || !normalNeighbour
-                        .equals(normalNode.predecessor.board)) {
-                    SearchNode normalSearchNode = new SearchNode(normalNode.steps + 1,
-                                                                 normalNeighbour,
-                                                                 normalNode);
-                    normalPQ.insert(normalSearchNode);
+        BucketQueue<SearchNode> pq = OPEN_LIST.get();
+        BestCostTable table = new BestCostTable();
+        try {
+            enqueue(new SearchNode(0, initial, null), pq, table);
+
+            while (true) {
+                SearchNode node = next(pq, table);
+                if (node.board.isGoal()) {
+                    return node;
                 }
+                expand(node, pq, table);
             }
+        }
+        finally {
+            // drop the nodes left in the open list, only the buckets are kept
+            pq.clear();
+        }
+    }
 
-            alternativeNode = alternativePQ.delMin();
-
-            // solve one iteration of twin board
-            Iterable<Board> alternativeNeighbours = alternativeNode.board.neighbors();
-            for (Board alternativeNeighbour : alternativeNeighbours) {
-                if (alternativeNode.predecessor == null || !alternativeNeighbour
-                        .equals(alternativeNode.predecessor.board)) {
-                    SearchNode alternativeSearchNode = new SearchNode(alternativeNode.steps + 1,
-                                                                      alternativeNeighbour,
-                                                                      alternativeNode);
-                    alternativePQ.insert(alternativeSearchNode);
-                }
+    /**
+     * Removes the node with the lowest priority that is worth expanding. Nodes of boards that
+     * were expanded already with as many steps, or were enqueued again with fewer steps, are
+     * dropped.
+     *
+     * @param pq    the open nodes
+     * @param table the best steps of the boards seen
+     * @return the node to expand
+     * @throws IllegalStateException if there are no more nodes, the goal of a solvable board is
+     *                               always reached before
+     */
+    private SearchNode next(BucketQueue<SearchNode> pq, BestCostTable table) {
+        while (!pq.isEmpty()) {
+            SearchNode node = pq.delMin();
+            if (table.close(node.board.key(), node.steps)) {
+                return node;
             }
-        } while (!(normalNode.board.isGoal() || alternativeNode.board.isGoal()));
+        }
+        throw new IllegalStateException("no open nodes left before reaching the goal");
+    }
 
-        // if the alternative board is solved, this means that the normal board is unsolvable
-        if (alternativeNode.board.isGoal()) {
-            return null;
+    /**
+     * Enqueues the neighbours of the node
+     *
+     * @param node  the node to expand
+     * @param pq    the open nodes
+     * @param table the best steps of the boards seen
+     */
+    private void expand(SearchNode node, BucketQueue<SearchNode> pq, BestCostTable table) {
+        for (Board neighbour : node.board.neighbors()) {
+            /**
+             * A critical optimization. Best-first search has one annoying feature:
+             * search nodes corresponding to the same board are enqueued on the priority queue
+             * many times. To reduce unnecessary exploration of useless search nodes,
+             * when considering the neighbors of a search node, don't enqueue a neighbor
+             * if its board is the same as the board of the predecessor search node.
+             */
+            if (node.predecessor == null || !neighbour.equals(node.predecessor.board)) {
+                enqueue(new SearchNode(node.steps + 1, neighbour, node), pq, table);
+            }
         }
+    }
 
-        return normalNode;
+    /**
+     * Enqueues the node, unless its board was already enqueued or expanded with at most as many
+     * steps. The boards are looked up by their {@link Board#key()}, so the duplicates never reach
+     * the priority queue.
+     *
+     * @param node  the new node
+     * @param pq    the open nodes
+     * @param table the best steps of the boards seen
+     */
+    private void enqueue(SearchNode node, BucketQueue<SearchNode> pq, BestCostTable table) {
+        if (table.offer(node.board.key(), node.steps)) {
+            pq.insert(node, node.getPriority(), node.steps);
+        }
     }
 
     // solve a slider puzzle (given below)
@@ -100,8 +212,10 @@ public class Solver {
                 blocks[i][j] = in.readInt();
         Board initial = new Board(blocks);
 
-        // solve the puzzle
-        Solver solver = new Solver(initial);
+        // solve the puzzle, the optional arguments select the algorithm and the heuristic
+        Algorithm algorithm = args.length > 1 ? Algorithm.valueOf(args[1]) : Algorithm.A_STAR;
+        Heuristic heuristic = args.length > 2 ? Heuristic.valueOf(args[2]) : Heuristic.MANHATTAN;
+        Solver solver = new Solver(initial, algorithm, heuristic);
 
         // print solution to standard output
         if (!solver.isSolvable())
@@ -134,7 +248,7 @@ public class Solver {
     /**
      * The Search Node
      */
-    private class SearchNode implements Comparable<SearchNode> {
+    private class SearchNode {
 
         /**
          * Number of steps so far
@@ -142,9 +256,9 @@ public class Solver {
         private final int steps;
 
         /**
-         * lazy calculated manhattan distance
+         * steps + the estimate of the heuristic, computed once
          */
-        private int manhattanDistance = -1;
+        private final int priority;
 
         /**
          * The board
@@ -167,64 +281,17 @@ public class Solver {
             this.steps = steps;
             this.board = board;
             this.predecessor = predecessor;
+            this.priority = steps + (patternDatabase == null ? board.manhattan()
+                                                             : patternDatabase.estimate(board));
         }
 
         /**
-         * Returns the priority: steps + manhattan distance. Queries only the {@link
-         * Board#manhattan()} when needed.
+         * Returns the priority: steps + manhattan distance, or steps + pattern database estimate
          *
-         * @return the priority: steps + manhattan distance
+         * @return the priority: steps + estimated moves to the goal
          */
         public int getPriority() {
-            if (manhattanDistance < 0) {
-                manhattanDistance = board.manhattan();
-            }
-            return manhattanDistance + steps;
-        }
-
-        /**
-         * Compares this object with the specified object for order.  Returns a negative integer,
-         * zero, or a positive integer as this object is less than, equal to, or greater than the
-         * specified object.
-         *
-         * <p>The implementor must ensure
-         * {@code sgn(x.compareTo(y)) == -sgn(y.compareTo(x))} for all {@code x} and {@code y}.
-         * (This implies that {@code x.compareTo(y)} must throw an exception iff {@code
-         * y.compareTo(x)} throws an exception.)
-         *
-         * <p>The implementor must also ensure that the relation is transitive:
-         * {@code (x.compareTo(y) > 0 && y.compareTo(z) > 0)} implies {@code x.compareTo(z) > 0}.
-         *
-         * <p>Finally, the implementor must ensure that {@code x.compareTo(y)==0}
-         * implies that {@code sgn(x.compareTo(z)) == sgn(y.compareTo(z))}, for all {@code z}.
-         *
-         * <p>It is strongly recommended, but <i>not</i> strictly required that
-         * {@code (x.compareTo(y)==0) == (x.equals(y))}.  Generally speaking, any class that
-         * implements the {@code Comparable} interface and violates this condition should clearly
-         * indicate this fact.  The recommended language is "Note: this class has a natural ordering
-         * that is inconsistent with equals."
-         *
-         * <p>In the foregoing description, the notation
-         * {@code sgn(}<i>expression</i>{@code )} designates the mathematical
-         * <i>signum</i> function, which is defined to return one of {@code -1},
-         * {@code 0}, or {@code 1} according to whether the value of
-         * <i>expression</i> is negative, zero, or positive, respectively.
-         *
-         * @param other the object to be compared.
-         * @return a negative integer, zero, or a positive integer as this object is less than,
-         * equal to, or greater than the specified object.
-         * @throws NullPointerException if the specified object is null
-         * @throws ClassCastException   if the specified object's type prevents it from being
-         *                              compared to this object.
-         */
-        @Override
-        public int compareTo(SearchNode other) {
-            if (other == null) {
-                throw new NullPointerException();
-            }
-            int thisPriority = this.getPriority();
-            int otherPriority = other.getPriority();
-            return thisPriority - otherPriority;
+            return priority;
         }
     }
 }
@@ -0,0 +1,187 @@
+import edu.princeton.cs.algs4.MinPQ;
+
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Checks that every algorithm and heuristic of {@link Solver} finds a shortest solution. Random
+ * solvable 3x3 boards are solved with a reference A* on a {@link MinPQ} with the manhattan
+ * distance, the search of the original solver, and with every algorithm and heuristic; the
+ * numbers of moves have to be equal and every solution has to be a valid sequence of moves to
+ * the goal. The reference does not depend on the tie order of the {@link BucketQueue} or on the
+ * closed set of {@link BestCostTable}.
+ * <p>
+ * Usage: <code>SolverTest [boards [seed]]</code>, exits with status 1 if a check fails.
+ */
+public class SolverTest {
+
+    private static final int DIMENSION = 3;
+
+    /**
+     * A board whose pattern database estimate drops by 5 with a single move
+     */
+    private static final int[][] INCONSISTENT_ESTIMATE = {{4, 2, 3}, {0, 7, 6}, {1, 5, 8}};
+
+    /**
+     * A 5x5 board with two blocks swapped
+     */
+    private static final int[][] UNSOLVABLE = {
+            {2, 1, 3, 4, 5}, {6, 7, 8, 9, 10}, {11, 12, 13, 14, 15}, {16, 17, 18, 19, 20},
+            {21, 22, 23, 24, 0}
+    };
+
+    private static int failures = 0;
+
+    /**
+     * Returns a random solvable board
+     *
+     * @param random the random numbers
+     * @return the board
+     */
+    private static Board randomBoard(Random random) {
+        while (true) {
+            int[] cells = new int[DIMENSION * DIMENSION];
+            for (int i = 0; i < cells.length; i++) {
+                int j = random.nextInt(i + 1);
+                cells[i] = cells[j];
+                cells[j] = i;
+            }
+            int[][] blocks = new int[DIMENSION][DIMENSION];
+            for (int i = 0; i < cells.length; i++) {
+                blocks[i / DIMENSION][i % DIMENSION] = cells[i];
+            }
+            Board board = new Board(blocks);
+            if (board.isSolvable()) {
+                return board;
+            }
+        }
+    }
+
+    /**
+     * Node of the reference search
+     */
+    private static final class ReferenceNode implements Comparable<ReferenceNode> {
+        private final Board board;
+        private final int steps;
+        private final ReferenceNode predecessor;
+
+        ReferenceNode(Board board, int steps, ReferenceNode predecessor) {
+            this.board = board;
+            this.steps = steps;
+            this.predecessor = predecessor;
+        }
+
+        @Override
+        public int compareTo(ReferenceNode that) {
+            return Integer.compare(steps + board.manhattan(), that.steps + that.board.manhattan());
+        }
+    }
+
+    /**
+     * Returns the number of moves of a shortest solution found by A* on a {@link MinPQ} with the
+     * manhattan distance, without a closed set, like the original solver
+     *
+     * @param board a solvable board
+     * @return the number of moves
+     */
+    private static int referenceMoves(Board board) {
+        MinPQ<ReferenceNode> pq = new MinPQ<>();
+        pq.insert(new ReferenceNode(board, 0, null));
+        while (true) {
+            ReferenceNode node = pq.delMin();
+            if (node.board.isGoal()) {
+                return node.steps;
+            }
+            for (Board neighbour : node.board.neighbors()) {
+                if (node.predecessor == null || !neighbour.equals(node.predecessor.board)) {
+                    pq.insert(new ReferenceNode(neighbour, node.steps + 1, node));
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a failure if the solution is not a sequence of moves from the board to the goal
+     *
+     * @param board  the initial board
+     * @param solver the solver of the board
+     * @param name   the name of the solver configuration
+     */
+    private static void checkSolution(Board board, Solver solver, String name) {
+        Iterator<Board> steps = solver.solution().iterator();
+        Board previous = steps.next();
+        boolean valid = previous.equals(board);
+        while (valid && steps.hasNext()) {
+            Board next = steps.next();
+            boolean neighbour = false;
+            for (Board candidate : previous.neighbors()) {
+                neighbour |= candidate.equals(next);
+            }
+            valid = neighbour;
+            previous = next;
+        }
+        if (!valid || !previous.isGoal()) {
+            fail(name + " returned an invalid solution for\n" + board);
+        }
+    }
+
+    /**
+     * Solves the board with every algorithm and heuristic and compares the numbers of moves with
+     * the reference search
+     *
+     * @param board a solvable board
+     */
+    private static void check(Board board) {
+        int expected = referenceMoves(board);
+        for (Solver.Algorithm algorithm : Solver.Algorithm.values()) {
+            for (Solver.Heuristic heuristic : Solver.Heuristic.values()) {
+                String name = algorithm + "/" + heuristic;
+                Solver solver = new Solver(board, algorithm, heuristic);
+                if (solver.moves() != expected) {
+                    fail(name + " found " + solver.moves() + " moves instead of " + expected
+                                 + " for\n" + board);
+                }
+                checkSolution(board, solver, name);
+            }
+        }
+    }
+
+    /**
+     * Checks that every algorithm and heuristic reports the board as unsolvable
+     *
+     * @param board an unsolvable board
+     */
+    private static void checkUnsolvable(Board board) {
+        for (Solver.Algorithm algorithm : Solver.Algorithm.values()) {
+            for (Solver.Heuristic heuristic : Solver.Heuristic.values()) {
+                Solver solver = new Solver(board, algorithm, heuristic);
+                if (solver.isSolvable() || solver.moves() != -1 || solver.solution() != null) {
+                    fail(algorithm + "/" + heuristic + " solved the unsolvable board\n" + board);
+                }
+            }
+        }
+    }
+
+    private static void fail(String message) {
+        failures++;
+        System.out.println("FAILED: " + message);
+    }
+
+    public static void main(String[] args) {
+        int boards = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 5;
+
+        check(new Board(INCONSISTENT_ESTIMATE));
+        // the parity is checked before the pattern databases, there are none for 5x5
+        checkUnsolvable(new Board(UNSOLVABLE));
+        Random random = new Random(seed);
+        for (int i = 0; i < boards; i++) {
+            check(randomBoard(random));
+        }
+
+        System.out.println(boards + 1 + " boards checked, " + failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe n-by-n percolation: any number of threads can open sites of the same grid at the
+ * same time without locks. It is built on a compare-and-set union-find in the style of Anderson and
+ * Woll:
+ * <ul>
+ * <li>a root is linked under another root with a single CAS of its parent, which only succeeds
+ * while it is still a root</li>
+ * <li>roots are linked in the order of a fixed pseudo-random priority of their indices, so
+ * concurrent links can never make a cycle and the trees stay shallow</li>
+ * <li>find halves the path with CAS-es that are allowed to fail</li>
+ * </ul>
+ * The OPEN/TOP/BOTTOM flags are OR-ed into the roots with CAS as well. After an OR the root is
+ * checked again, if it was linked meanwhile the flags are OR-ed into the new root, so the flags
+ * are never lost and the thread that completes TOP | BOTTOM sets the percolation latch.
+ * <p>
+ * The row and column indices are between <code>1</code> and <code>n</code>, like in {@link
+ * Percolation}.
+ */
+public class ConcurrentPercolation {
+
+    private static final int SITE_OPEN = FlaggedUnionFind.SITE_OPEN;
+    private static final int CONNECTED_TO_TOP = FlaggedUnionFind.CONNECTED_TO_TOP;
+    private static final int CONNECTED_TO_BOTTOM = FlaggedUnionFind.CONNECTED_TO_BOTTOM;
+    private static final int CONNECTED_TO_BOTH_TOP_AND_BOTTOM =
+            FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM;
+
+    private final int gridSize;
+
+    /**
+     * parent[i] = parent of site i, parent[i] == i for the roots
+     */
+    private final AtomicIntegerArray parent;
+
+    /**
+     * flags[i] = SITE_OPEN of site i, and the TOP/BOTTOM flags of the component if i is a root
+     */
+    private final AtomicIntegerArray flags;
+
+    private final LongAdder numberOfOpenSites = new LongAdder();
+
+    /**
+     * The latch, becomes true when the system percolates and never goes back
+     */
+    private volatile boolean percolation = false;
+
+    /**
+     * Create n-by-n grid, with all sites blocked
+     *
+     * @param n grid dimension
+     * @throws IllegalArgumentException if n < 1
+     */
+    public ConcurrentPercolation(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("grid size should be > 0");
+        }
+        this.gridSize = n;
+        this.parent = new AtomicIntegerArray(n * n);
+        this.flags = new AtomicIntegerArray(n * n);
+        for (int i = 0; i < n * n; i++) {
+            parent.set(i, i);
+        }
+    }
+
+    /**
+     * Returns the fixed pseudo-random linking priority of the site (murmur3 finalizer)
+     *
+     * @param site the site index
+     * @return the priority
+     */
+    private static int priority(int site) {
+        int h = site;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Returns true if root a should be linked under root b
+     *
+     * @param a a root
+     * @param b another root
+     * @return true if (priority, index) of a is less than that of b
+     */
+    private static boolean linksUnder(int a, int b) {
+        int priorityA = priority(a);
+        int priorityB = priority(b);
+        return priorityA < priorityB || (priorityA == priorityB && a < b);
+    }
+
+    /**
+     * Returns the root of the site, halving the path on the way
+     *
+     * @param site the site index
+     * @return the root of the component at the time of the call
+     */
+    private int find(int site) {
+        while (true) {
+            int p = parent.get(site);
+            if (p == site) {
+                return site;
+            }
+            int grandParent = parent.get(p);
+            if (grandParent != p) {
+                parent.compareAndSet(site, p, grandParent);
+            }
+            site = grandParent;
+        }
+    }
+
+    /**
+     * OR-s the flag into the root of the site, following the links until the flags are in a root
+     * that is still a root after the OR
+     *
+     * @param site the site index
+     * @param flag the flags to OR
+     * @return the flags of the root after the OR
+     */
+    private int orRootFlags(int site, int flag) {
+        while (true) {
+            int root = find(site);
+            int value;
+            do {
+                value = flags.get(root);
+            } while ((value | flag) != value && !flags.compareAndSet(root, value, value | flag));
+            if (parent.get(root) == root) {
+                return value | flag;
+            }
+            site = root;
+        }
+    }
+
+    /**
+     * Merges the components of two sites
+     *
+     * @param p the first site
+     * @param q the second site
+     */
+    private void union(int p, int q) {
+        while (true) {
+            int rootP = find(p);
+            int rootQ = find(q);
+            if (rootP == rootQ) {
+                return;
+            }
+            int child = linksUnder(rootP, rootQ) ? rootP : rootQ;
+            int newRoot = child == rootP ? rootQ : rootP;
+            if (parent.compareAndSet(child, child, newRoot)) {
+                int merged = orRootFlags(newRoot,
+                                         flags.get(child) & CONNECTED_TO_BOTH_TOP_AND_BOTTOM);
+                latch(merged);
+                return;
+            }
+        }
+    }
+
+    private void latch(int rootFlags) {
+        if ((rootFlags & CONNECTED_TO_BOTH_TOP_AND_BOTTOM) == CONNECTED_TO_BOTH_TOP_AND_BOTTOM) {
+            percolation = true;
+        }
+    }
+
+    private int getSiteIndex(int row, int col) {
+        return (row - 1) * gridSize + (col - 1);
+    }
+
+    private void checkCoordinates(int row, int col) {
+        if (row < 1 || row > gridSize || col < 1 || col > gridSize) {
+            throw new IllegalArgumentException("Invalid coordinate: (" + row + ", " + col
+                                                       + ") The row and col should be >= 1 and <= grid dimension");
+        }
+    }
+
+    private boolean isOpen(int site) {
+        return (flags.get(site) & SITE_OPEN) != 0;
+    }
+
+    /**
+     * open site (row, col) if it is not open already. Exactly one of the threads opening the same
+     * site does the work. A neighbour opened at the same time by another thread is connected by
+     * at least one of the two threads, because both publish their own open flag before they look
+     * at the neighbours.
+     *
+     * @param row row index (1-gridSize)
+     * @param col column index (1-gridSize)
+     */
+    public void open(int row, int col) {
+        checkCoordinates(row, col);
+        int site = getSiteIndex(row, col);
+
+        int siteFlags = SITE_OPEN;
+        if (row == 1) {
+            siteFlags |= CONNECTED_TO_TOP;
+        }
+        if (row == gridSize) {
+            siteFlags |= CONNECTED_TO_BOTTOM;
+        }
+        // a blocked site is never linked, so its flags are still 0
+        if (!flags.compareAndSet(site, 0, siteFlags)) {
+            return;
+        }
+        numberOfOpenSites.increment();
+        latch(siteFlags);
+
+        if (row > 1 && isOpen(site - gridSize)) {
+            union(site, site - gridSize);
+        }
+        if (row < gridSize && isOpen(site + gridSize)) {
+            union(site, site + gridSize);
+        }
+        if (col > 1 && isOpen(site - 1)) {
+            union(site, site - 1);
+        }
+        if (col < gridSize && isOpen(site + 1)) {
+            union(site, site + 1);
+        }
+    }
+
+    /**
+     * Returns true if the site (row, col) open
+     *
+     * @param row row index (1-gridSize)
+     * @param col column index (1-gridSize)
+     * @return true if the site is open (non blocked), false if the site is blocked
+     */
+    public boolean isOpen(int row, int col) {
+        checkCoordinates(row, col);
+        return isOpen(getSiteIndex(row, col));
+    }
+
+    /**
+     * is site (row, col) full?
+     *
+     * @param row row index
+     * @param col column index
+     * @return true if the site is open and connected to the top
+     */
+    public boolean isFull(int row, int col) {
+        checkCoordinates(row, col);
+        int site = getSiteIndex(row, col);
+        return isOpen(site) && (orRootFlags(site, 0) & CONNECTED_TO_TOP) != 0;
+    }
+
+    /**
+     * Returns true if the system percolates
+     *
+     * @return true, if the system percolates
+     */
+    public boolean percolates() {
+        return percolation;
+    }
+
+    /**
+     * Returns the number of open sites
+     *
+     * @return the number of open sites
+     */
+    public int numberOfOpenSites() {
+        return numberOfOpenSites.intValue();
+    }
+}
@@ -0,0 +1,464 @@
+import java.util.Arrays;
+
+/**
+ * Percolation with sites that can be opened and closed again, answered offline. The events and
+ * the queries are recorded in time order first, then {@link #solve()} answers all the queries in
+ * one pass with offline dynamic connectivity:
+ * <ul>
+ * <li>every site is open during some intervals of time, every pair of neighbouring sites is
+ * connected during the intersections of their intervals</li>
+ * <li>the intervals are stored in a segment tree over time, every interval in O(log T) nodes</li>
+ * <li>a depth-first walk of the tree applies the sites and connections of a node when it enters
+ * it and rolls them back when it leaves it, at a leaf the state is exactly the state at that
+ * time</li>
+ * </ul>
+ * The union-find has union by size and no path compression, so every union can be rolled back.
+ * The TOP/BOTTOM flags are OR-ed into the roots like in {@link Percolation}, and the number of open
+ * clusters connected to both the top and the bottom is kept up to date. This takes O(log T log n)
+ * per event instead of rebuilding the grid after every close.
+ * <p>
+ * The row and column indices are between <code>1</code> and <code>n</code>, like in {@link
+ * Percolation}.
+ */
+public class DynamicPercolation {
+
+    private static final int QUERY_PERCOLATES = -1;
+
+    private final int gridSize;
+
+    /**
+     * The current state of the recorded log: openSince[site] = time the site was opened, -1 if it
+     * is closed
+     */
+    private final int[] openSince;
+
+    /**
+     * Number of state changes recorded, the state at time t is after the first t changes
+     */
+    private int time = 0;
+
+    /**
+     * Closed open-intervals of the sites: site, from (inclusive), to (exclusive)
+     */
+    private int[] intervalSite = new int[16];
+    private int[] intervalFrom = new int[16];
+    private int[] intervalTo = new int[16];
+    private int intervalCount = 0;
+
+    /**
+     * Queries: time and site, {@link #QUERY_PERCOLATES} for percolates()
+     */
+    private int[] queryTime = new int[16];
+    private int[] querySite = new int[16];
+    private int queryCount = 0;
+
+    private boolean[] answers;
+    private boolean solved = false;
+
+    // state of the walk
+    private int[] parent;
+    private int[] size;
+    private byte[] flags;
+    private boolean[] active;
+    private int percolatingClusters;
+    private int[] undoChild;
+    private int[] undoDelta;
+    private byte[] undoFlags;
+    private int undoCount;
+
+    // segment tree items: linked lists per node
+    private int[] siteHead;
+    private int[] edgeHead;
+    private int[] itemNext;
+    private int[] itemA;
+    private int[] itemB;
+    private int itemCount;
+
+    /**
+     * Creates an n-by-n grid with all sites blocked and an empty event log
+     *
+     * @param n grid dimension
+     * @throws IllegalArgumentException if n < 1
+     */
+    public DynamicPercolation(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("grid size should be > 0");
+        }
+        this.gridSize = n;
+        this.openSince = new int[n * n];
+        Arrays.fill(openSince, -1);
+    }
+
+    private int getSiteIndex(int row, int col) {
+        if (row < 1 || row > gridSize || col < 1 || col > gridSize) {
+            throw new IllegalArgumentException("Invalid coordinate: (" + row + ", " + col
+                                                       + ") The row and col should be >= 1 and <= grid dimension");
+        }
+        return (row - 1) * gridSize + (col - 1);
+    }
+
+    /**
+     * Records the opening of site (row, col), nothing happens if it is open already
+     *
+     * @param row row index (1-gridSize)
+     * @param col column index (1-gridSize)
+     */
+    public void open(int row, int col) {
+        int site = getSiteIndex(row, col);
+        if (openSince[site] >= 0) {
+            return;
+        }
+        time++;
+        openSince[site] = time;
+        solved = false;
+    }
+
+    /**
+     * Records the closing of site (row, col), nothing happens if it is blocked already
+     *
+     * @param row row index (1-gridSize)
+     * @param col column index (1-gridSize)
+     */
+    public void close(int row, int col) {
+        int site = getSiteIndex(row, col);
+        if (openSince[site] < 0) {
+            return;
+        }
+        time++;
+        addInterval(site, openSince[site], time);
+        openSince[site] = -1;
+        solved = false;
+    }
+
+    /**
+     * Records a percolates() query at the current point of the log
+     *
+     * @return the query id for {@link #answer(int)}
+     */
+    public int queryPercolates() {
+        return addQuery(QUERY_PERCOLATES);
+    }
+
+    /**
+     * Records an isFull(row, col) query at the current point of the log
+     *
+     * @param row row index (1-gridSize)
+     * @param col column index (1-gridSize)
+     * @return the query id for {@link #answer(int)}
+     */
+    public int queryIsFull(int row, int col) {
+        return addQuery(getSiteIndex(row, col));
+    }
+
+    /**
+     * Returns the answer of the query, solves the log first if needed
+     *
+     * @param query the id returned when the query was recorded
+     * @return the answer
+     * @throws IllegalArgumentException if there is no such query
+     */
+    public boolean answer(int query) {
+        if (query < 0 || query >= queryCount) {
+            throw new IllegalArgumentException("unknown query: " + query);
+        }
+        if (!solved) {
+            solve();
+        }
+        return answers[query];
+    }
+
+    private void addInterval(int site, int from, int to) {
+        if (intervalCount == intervalSite.length) {
+            intervalSite = Arrays.copyOf(intervalSite, 2 * intervalCount);
+            intervalFrom = Arrays.copyOf(intervalFrom, 2 * intervalCount);
+            intervalTo = Arrays.copyOf(intervalTo, 2 * intervalCount);
+        }
+        intervalSite[intervalCount] = site;
+        intervalFrom[intervalCount] = from;
+        intervalTo[intervalCount] = to;
+        intervalCount++;
+    }
+
+    private int addQuery(int site) {
+        if (queryCount == queryTime.length) {
+            queryTime = Arrays.copyOf(queryTime, 2 * queryCount);
+            querySite = Arrays.copyOf(querySite, 2 * queryCount);
+        }
+        queryTime[queryCount] = time;
+        querySite[queryCount] = site;
+        solved = false;
+        return queryCount++;
+    }
+
+    /**
+     * Answers all the recorded queries
+     */
+    public void solve() {
+        int states = time + 1;
+        int numberOfSites = gridSize * gridSize;
+
+        // the sites still open are open until the end of the log
+        int[] siteIntervalStart = new int[numberOfSites + 1];
+        int total = intervalCount;
+        for (int site = 0; site < numberOfSites; site++) {
+            if (openSince[site] >= 0) {
+                total++;
+            }
+        }
+        int[] from = new int[total];
+        int[] to = new int[total];
+        int[] sites = new int[total];
+        System.arraycopy(intervalFrom, 0, from, 0, intervalCount);
+        System.arraycopy(intervalTo, 0, to, 0, intervalCount);
+        System.arraycopy(intervalSite, 0, sites, 0, intervalCount);
+        int k = intervalCount;
+        for (int site = 0; site < numberOfSites; site++) {
+            if (openSince[site] >= 0) {
+                sites[k] = site;
+                from[k] = openSince[site];
+                to[k] = states;
+                k++;
+            }
+        }
+
+        // group the intervals by site with a stable counting sort, the intervals of a site were
+        // closed one after the other, so they are in time order inside a site
+        for (int i = 0; i < total; i++) {
+            siteIntervalStart[sites[i] + 1]++;
+        }
+        for (int site = 0; site < numberOfSites; site++) {
+            siteIntervalStart[site + 1] += siteIntervalStart[site];
+        }
+        int[] order = new int[total];
+        int[] next = siteIntervalStart.clone();
+        for (int i = 0; i < total; i++) {
+            order[next[sites[i]]++] = i;
+        }
+
+        int treeSize = 4 * states;
+        siteHead = new int[treeSize];
+        edgeHead = new int[treeSize];
+        Arrays.fill(siteHead, -1);
+        Arrays.fill(edgeHead, -1);
+        itemNext = new int[16];
+        itemA = new int[16];
+        itemB = new int[16];
+        itemCount = 0;
+
+        for (int i = 0; i < total; i++) {
+            insert(siteHead, 1, 0, states, from[i], to[i], sites[i], 0);
+        }
+        for (int site = 0; site < numberOfSites; site++) {
+            int col = site % gridSize;
+            if (col < gridSize - 1) {
+                insertEdges(site, site + 1, states, siteIntervalStart, order, from, to);
+            }
+            if (site + gridSize < numberOfSites) {
+                insertEdges(site, site + gridSize, states, siteIntervalStart, order, from, to);
+            }
+        }
+
+        // queries grouped by time
+        int[] queryStart = new int[states + 1];
+        for (int q = 0; q < queryCount; q++) {
+            queryStart[queryTime[q] + 1]++;
+        }
+        for (int t = 0; t < states; t++) {
+            queryStart[t + 1] += queryStart[t];
+        }
+        int[] queriesByTime = new int[queryCount];
+        int[] queryNext = queryStart.clone();
+        for (int q = 0; q < queryCount; q++) {
+            queriesByTime[queryNext[queryTime[q]]++] = q;
+        }
+
+        parent = new int[numberOfSites];
+        size = new int[numberOfSites];
+        flags = new byte[numberOfSites];
+        active = new boolean[numberOfSites];
+        for (int site = 0; site < numberOfSites; site++) {
+            parent[site] = site;
+            size[site] = 1;
+            int row = site / gridSize;
+            if (row == 0) {
+                flags[site] |= FlaggedUnionFind.CONNECTED_TO_TOP;
+            }
+            if (row == gridSize - 1) {
+                flags[site] |= FlaggedUnionFind.CONNECTED_TO_BOTTOM;
+            }
+        }
+        percolatingClusters = 0;
+        undoChild = new int[16];
+        undoDelta = new int[16];
+        undoFlags = new byte[16];
+        undoCount = 0;
+
+        answers = new boolean[queryCount];
+        walk(1, 0, states, queryStart, queriesByTime);
+
+        // the walk state is not needed any more
+        parent = null;
+        size = null;
+        flags = null;
+        active = null;
+        siteHead = null;
+        edgeHead = null;
+        itemNext = null;
+        itemA = null;
+        itemB = null;
+        solved = true;
+    }
+
+    /**
+     * Inserts the connection of the two sites for the intersections of their open intervals
+     */
+    private void insertEdges(int a, int b, int states, int[] siteIntervalStart, int[] order,
+                             int[] from, int[] to) {
+        int i = siteIntervalStart[a];
+        int j = siteIntervalStart[b];
+        while (i < siteIntervalStart[a + 1] && j < siteIntervalStart[b + 1]) {
+            int intervalA = order[i];
+            int intervalB = order[j];
+            int start = Math.max(from[intervalA], from[intervalB]);
+            int end = Math.min(to[intervalA], to[intervalB]);
+            if (start < end) {
+                insert(edgeHead, 1, 0, states, start, end, a, b);
+            }
+            if (to[intervalA] < to[intervalB]) {
+                i++;
+            }
+            else {
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Adds the item to the nodes of the segment tree covering [from, to)
+     */
+    private void insert(int[] head, int node, int nodeFrom, int nodeTo, int from, int to, int a,
+                        int b) {
+        if (to <= nodeFrom || nodeTo <= from) {
+            return;
+        }
+        if (from <= nodeFrom && nodeTo <= to) {
+            if (itemCount == itemNext.length) {
+                itemNext = Arrays.copyOf(itemNext, 2 * itemCount);
+                itemA = Arrays.copyOf(itemA, 2 * itemCount);
+                itemB = Arrays.copyOf(itemB, 2 * itemCount);
+            }
+            itemA[itemCount] = a;
+            itemB[itemCount] = b;
+            itemNext[itemCount] = head[node];
+            head[node] = itemCount++;
+            return;
+        }
+        int middle = (nodeFrom + nodeTo) >>> 1;
+        insert(head, 2 * node, nodeFrom, middle, from, to, a, b);
+        insert(head, 2 * node + 1, middle, nodeTo, from, to, a, b);
+    }
+
+    /**
+     * Applies the items of the node, answers the queries at a leaf or walks the children, then
+     * rolls the items back
+     */
+    private void walk(int node, int nodeFrom, int nodeTo, int[] queryStart, int[] queriesByTime) {
+        int undoMark = undoCount;
+        int activated = 0;
+        for (int item = siteHead[node]; item >= 0; item = itemNext[item]) {
+            int site = itemA[item];
+            active[site] = true;
+            if ((flags[site] & FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM)
+                    == FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM) {
+                percolatingClusters++;
+            }
+            activated++;
+        }
+        for (int item = edgeHead[node]; item >= 0; item = itemNext[item]) {
+            union(itemA[item], itemB[item]);
+        }
+
+        if (nodeTo - nodeFrom == 1) {
+            for (int i = queryStart[nodeFrom]; i < queryStart[nodeFrom + 1]; i++) {
+                int query = queriesByTime[i];
+                int site = querySite[query];
+                answers[query] = site == QUERY_PERCOLATES
+                                 ? percolatingClusters > 0
+                                 : active[site]
+                                         && (flags[find(site)] & FlaggedUnionFind.CONNECTED_TO_TOP)
+                                         != 0;
+            }
+        }
+        else {
+            int middle = (nodeFrom + nodeTo) >>> 1;
+            walk(2 * node, nodeFrom, middle, queryStart, queriesByTime);
+            walk(2 * node + 1, middle, nodeTo, queryStart, queriesByTime);
+        }
+
+        while (undoCount > undoMark) {
+            rollback();
+        }
+        if (activated > 0) {
+            for (int item = siteHead[node]; item >= 0; item = itemNext[item]) {
+                int site = itemA[item];
+                active[site] = false;
+                if ((flags[site] & FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM)
+                        == FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM) {
+                    percolatingClusters--;
+                }
+            }
+        }
+    }
+
+    private int find(int site) {
+        while (parent[site] != site) {
+            site = parent[site];
+        }
+        return site;
+    }
+
+    private boolean isPercolating(int root) {
+        return (flags[root] & FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM)
+                == FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM;
+    }
+
+    private void union(int p, int q) {
+        int rootP = find(p);
+        int rootQ = find(q);
+        if (rootP == rootQ) {
+            return;
+        }
+        if (size[rootP] < size[rootQ]) {
+            int tmp = rootP;
+            rootP = rootQ;
+            rootQ = tmp;
+        }
+        int before = (isPercolating(rootP) ? 1 : 0) + (isPercolating(rootQ) ? 1 : 0);
+        if (undoCount == undoChild.length) {
+            undoChild = Arrays.copyOf(undoChild, 2 * undoCount);
+            undoDelta = Arrays.copyOf(undoDelta, 2 * undoCount);
+            undoFlags = Arrays.copyOf(undoFlags, 2 * undoCount);
+        }
+        undoChild[undoCount] = rootQ;
+        undoFlags[undoCount] = flags[rootP];
+
+        parent[rootQ] = rootP;
+        size[rootP] += size[rootQ];
+        flags[rootP] |= flags[rootQ];
+
+        int delta = (isPercolating(rootP) ? 1 : 0) - before;
+        percolatingClusters += delta;
+        undoDelta[undoCount] = delta;
+        undoCount++;
+    }
+
+    private void rollback() {
+        undoCount--;
+        int child = undoChild[undoCount];
+        int root = parent[child];
+        parent[child] = child;
+        size[root] -= size[child];
+        flags[root] = undoFlags[undoCount];
+        percolatingClusters -= undoDelta[undoCount];
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Union-find over flat <code>int[]</code> arrays with path halving and union by size. Every site
+ * has a byte of flags stored next to its parent; the flags of the root describe the whole
+ * component, so OR-ing the flags of two roots on union keeps them valid without any extra lookup.
+ * <p>
+ * There are no virtual sites: connection to the top or to the bottom is a flag of the root, this is
+ * the technique described in <code>readme.md</code> to avoid backwash with a single union-find.
+ */
+final class FlaggedUnionFind {
+
+    /**
+     * bit flag indicating that the site is open
+     */
+    static final byte SITE_OPEN = 1;
+
+    /**
+     * bit flag indicating that the component is connected to the top
+     */
+    static final byte CONNECTED_TO_TOP = 2;
+
+    /**
+     * bit flag indicating that the component is connected to the bottom
+     */
+    static final byte CONNECTED_TO_BOTTOM = 4;
+
+    /**
+     * Connected to the top and bottom - means percolation
+     */
+    static final byte CONNECTED_TO_BOTH_TOP_AND_BOTTOM = CONNECTED_TO_TOP | CONNECTED_TO_BOTTOM;
+
+    /**
+     * parent[i] = parent of site i, parent[i] == i for the roots
+     */
+    private final int[] parent;
+
+    /**
+     * size[i] = number of sites in the component rooted at i (valid only for the roots)
+     */
+    private final int[] size;
+
+    /**
+     * flags[i] = {@link #SITE_OPEN} of site i, and the TOP/BOTTOM flags of the component if i is a
+     * root
+     */
+    private final byte[] flags;
+
+    /**
+     * Number of unions that merged two different components
+     */
+    private int mergeCount = 0;
+
+    /**
+     * True if the finds, unions and root flag updates of this union-find are counted by
+     * {@link PercolationMetrics}, only the union-find of {@link Percolation} is
+     */
+    private final boolean countMetrics;
+
+    /**
+     * Creates <code>n</code> singleton components with no flags set, not counted by
+     * {@link PercolationMetrics}
+     *
+     * @param n number of sites
+     */
+    FlaggedUnionFind(int n) {
+        this(n, false);
+    }
+
+    /**
+     * Creates <code>n</code> singleton components with no flags set
+     *
+     * @param n            number of sites
+     * @param countMetrics true to count the finds, unions and root flag updates in
+     *                     {@link PercolationMetrics}
+     */
+    FlaggedUnionFind(int n, boolean countMetrics) {
+        this.countMetrics = countMetrics;
+        parent = new int[n];
+        size = new int[n];
+        flags = new byte[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+    }
+
+    /**
+     * Returns the root of the component of <code>site</code>, halving the path on the way
+     *
+     * @param site the site index
+     * @return the root of the component
+     */
+    int find(int site) {
+        int pathLength = 0;
+        while (parent[site] != site) {
+            parent[site] = parent[parent[site]];
+            site = parent[site];
+            pathLength++;
+        }
+        if (PercolationMetrics.ENABLED && countMetrics) {
+            PercolationMetrics.find(pathLength);
+        }
+        return site;
+    }
+
+    /**
+     * Merges the components of the two sites, the smaller tree is linked under the larger one and
+     * the flags of the two roots are OR-ed into the new root
+     *
+     * @param p the first site
+     * @param q the second site
+     * @return the root of the merged component
+     */
+    int union(int p, int q) {
+        int rootP = find(p);
+        int rootQ = find(q);
+        if (rootP == rootQ) {
+            return rootP;
+        }
+        if (size[rootP] < size[rootQ]) {
+            int tmp = rootP;
+            rootP = rootQ;
+            rootQ = tmp;
+        }
+        parent[rootQ] = rootP;
+        size[rootP] += size[rootQ];
+        mergeCount++;
+        if (PercolationMetrics.ENABLED && countMetrics) {
+            PercolationMetrics.union();
+            if ((flags[rootQ] & ~flags[rootP] & CONNECTED_TO_BOTH_TOP_AND_BOTTOM) != 0) {
+                PercolationMetrics.rootFlagUpdate();
+            }
+        }
+        flags[rootP] |= flags[rootQ] & CONNECTED_TO_BOTH_TOP_AND_BOTTOM;
+        return rootP;
+    }
+
+    /**
+     * Returns the flags of the site itself
+     *
+     * @param site the site index
+     * @return the flags stored for the site
+     */
+    byte flags(int site) {
+        return flags[site];
+    }
+
+    /**
+     * OR-s the flag into the site's own flags
+     *
+     * @param site the site index
+     * @param flag the flag to set
+     */
+    void setFlag(int site, int flag) {
+        if (PercolationMetrics.ENABLED && countMetrics && parent[site] == site
+                && (flag & ~flags[site] & CONNECTED_TO_BOTH_TOP_AND_BOTTOM) != 0) {
+            PercolationMetrics.rootFlagUpdate();
+        }
+        flags[site] |= flag;
+    }
+
+    /**
+     * Returns the flags of the root of the site's component
+     *
+     * @param site the site index
+     * @return the flags of the component
+     */
+    byte rootFlags(int site) {
+        return flags[find(site)];
+    }
+
+    /**
+     * Returns the sites whose root has the flag, as the words of a bit set. The sites are scanned
+     * in index order and every path is compressed to point directly at its root, so a root is
+     * walked to once and the later sites of its component need only two reads. A blocked site is
+     * its own root without flags, so it is never included and the scan needs no branch on it.
+     * The walk does not call {@link #find(int)} and is not counted by {@link PercolationMetrics}.
+     *
+     * @param flag a single bit flag
+     * @return bit <code>site</code> is set if the root of the site has the flag
+     */
+    long[] sitesWithRootFlag(int flag) {
+        long[] words = new long[(parent.length + Long.SIZE - 1) / Long.SIZE];
+        int shift = Integer.numberOfTrailingZeros(flag);
+        for (int site = 0; site < parent.length; site++) {
+            int root = parent[site];
+            if (parent[root] != root) {
+                do {
+                    root = parent[root];
+                } while (parent[root] != root);
+                for (int next = site; parent[next] != root; ) {
+                    int up = parent[next];
+                    parent[next] = root;
+                    next = up;
+                }
+            }
+            words[site >>> 6] |= (long) (flags[root] >>> shift & 1) << site;
+        }
+        return words;
+    }
+
+    /**
+     * Returns true if the site is open
+     *
+     * @param site the site index
+     * @return true if {@link #SITE_OPEN} is set for the site
+     */
+    boolean isOpen(int site) {
+        return (flags[site] & SITE_OPEN) != 0;
+    }
+
+    /**
+     * Returns true if the site is the root of its component
+     *
+     * @param site the site index
+     * @return true if the site is its own parent
+     */
+    boolean isRoot(int site) {
+        return parent[site] == site;
+    }
+
+    /**
+     * Returns the number of sites in the component whose root is <code>root</code>
+     *
+     * @param root a root returned by {@link #find(int)} or {@link #union(int, int)}
+     * @return the size of the component
+     */
+    int componentSize(int root) {
+        return size[root];
+    }
+
+    /**
+     * Returns the number of unions that merged two different components
+     *
+     * @return the number of merges so far
+     */
+    int mergeCount() {
+        return mergeCount;
+    }
+}
@@ -0,0 +1,411 @@
+import edu.princeton.cs.algs4.StdOut;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Row-streaming Hoshen–Kopelman cluster labeling of a grid of open/blocked sites. The rows are
+ * added one after the other, only the labels of the previous row and an equivalence table of the
+ * labels still present in it are kept, so the memory is proportional to the width of the grid and
+ * does not depend on the number of rows.
+ * <p>
+ * After every row the labels are compacted to 0..k-1. The clusters of the previous row that are
+ * not connected to the new row are finished, their sizes go into the statistics and their labels
+ * are reused. The first row is the top of the grid, the system percolates if a cluster of the last
+ * row is connected to the first one.
+ */
+public class HoshenKopelman {
+
+    /**
+     * Number of bins of the cluster size histogram, bin i counts the sizes in [2^i, 2^(i+1))
+     */
+    private static final int HISTOGRAM_BINS = 64;
+
+    /**
+     * Marks a blocked site in the label rows
+     */
+    private static final int BLOCKED = -1;
+
+    private final int width;
+
+    /**
+     * Labels of the previous row, {@link #BLOCKED} for the blocked sites
+     */
+    private int[] previousLabels;
+
+    /**
+     * Labels of the row being added
+     */
+    private int[] currentLabels;
+
+    /**
+     * Equivalence table of the labels: parent, size and connected to top of the roots
+     */
+    private final int[] parent;
+    private long[] size;
+    private boolean[] connectedToTop;
+
+    /**
+     * Compacted sizes and flags, swapped with {@link #size} and {@link #connectedToTop}
+     */
+    private long[] compactSize;
+    private boolean[] compactConnectedToTop;
+
+    /**
+     * compactLabel[root] = new label of the root in the compaction
+     */
+    private final int[] compactLabel;
+
+    /**
+     * reached[root] = true if the root is reached from the current row and has no new label yet
+     */
+    private final boolean[] reached;
+
+    /**
+     * Number of labels in use after the last compaction
+     */
+    private int labelCount = 0;
+
+    private long rows = 0;
+    private boolean finished = false;
+    private boolean percolation = false;
+
+    private long numberOfOpenSites = 0;
+    private long numberOfClusters = 0;
+    private long largestClusterSize = 0;
+    private final long[] histogram = new long[HISTOGRAM_BINS];
+
+    /**
+     * Creates an empty labeling for rows of the given width
+     *
+     * @param width number of sites in a row
+     * @throws IllegalArgumentException if width < 1
+     */
+    public HoshenKopelman(int width) {
+        if (width < 1) {
+            throw new IllegalArgumentException("width should be > 0");
+        }
+        this.width = width;
+        this.previousLabels = new int[width];
+        this.currentLabels = new int[width];
+        Arrays.fill(previousLabels, BLOCKED);
+
+        // at most (width + 1) / 2 labels from the previous row and as many new ones
+        int capacity = width + 2;
+        this.parent = new int[capacity];
+        this.size = new long[capacity];
+        this.connectedToTop = new boolean[capacity];
+        this.compactSize = new long[capacity];
+        this.compactConnectedToTop = new boolean[capacity];
+        this.compactLabel = new int[capacity];
+        this.reached = new boolean[capacity];
+    }
+
+    /**
+     * Labels a grid of rows-by-width sites, each open with probability p, generated one row at a
+     * time
+     *
+     * @param width number of sites in a row
+     * @param rows  number of rows
+     * @param p     the site vacancy probability
+     * @param seed  the seed of the random stream
+     * @return the finished labeling
+     */
+    public static HoshenKopelman random(int width, long rows, double p, long seed) {
+        HoshenKopelman labeling = new HoshenKopelman(width);
+        SplittableRandom random = new SplittableRandom(seed);
+        boolean[] row = new boolean[width];
+        for (long r = 0; r < rows; r++) {
+            for (int col = 0; col < width; col++) {
+                row[col] = random.nextDouble() < p;
+            }
+            labeling.addRow(row);
+        }
+        labeling.finish();
+        return labeling;
+    }
+
+    /**
+     * Labels a grid read from a text file, one row per line, <code>1</code> is an open site,
+     * <code>0</code> is a blocked one. The width is the length of the first line.
+     *
+     * @param file the file to read
+     * @return the finished labeling
+     * @throws IOException              if the file can not be read
+     * @throws IllegalArgumentException if the file is empty or a line has a different length
+     */
+    public static HoshenKopelman read(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            String line = reader.readLine();
+            if (line == null || line.isEmpty()) {
+                throw new IllegalArgumentException("the file should not be empty: " + file);
+            }
+            HoshenKopelman labeling = new HoshenKopelman(line.length());
+            boolean[] row = new boolean[line.length()];
+            while (line != null) {
+                if (line.length() != row.length) {
+                    throw new IllegalArgumentException(
+                            "every line should have " + row.length + " sites: " + line);
+                }
+                for (int col = 0; col < row.length; col++) {
+                    row[col] = line.charAt(col) == '1';
+                }
+                labeling.addRow(row);
+                line = reader.readLine();
+            }
+            labeling.finish();
+            return labeling;
+        }
+    }
+
+    /**
+     * Adds the next row of the grid
+     *
+     * @param open open[col] is true if the site is open
+     * @throws IllegalArgumentException if open is null or its length is not the width
+     * @throws IllegalStateException    if the labeling is finished
+     */
+    public void addRow(boolean[] open) {
+        if (open == null || open.length != width) {
+            throw new IllegalArgumentException("the row should have " + width + " sites");
+        }
+        if (finished) {
+            throw new IllegalStateException("the labeling is finished");
+        }
+
+        int nextLabel = labelCount;
+        for (int col = 0; col < width; col++) {
+            if (!open[col]) {
+                currentLabels[col] = BLOCKED;
+                continue;
+            }
+            numberOfOpenSites++;
+
+            int up = previousLabels[col];
+            int left = col > 0 ? currentLabels[col - 1] : BLOCKED;
+            int root;
+            if (up == BLOCKED && left == BLOCKED) {
+                root = nextLabel++;
+                parent[root] = root;
+                size[root] = 0;
+                connectedToTop[root] = rows == 0;
+            }
+            else if (up == BLOCKED) {
+                root = find(left);
+            }
+            else if (left == BLOCKED) {
+                root = find(up);
+            }
+            else {
+                root = union(up, left);
+            }
+            size[root]++;
+            currentLabels[col] = root;
+        }
+
+        finishDisconnectedClusters();
+        compact();
+
+        int[] tmp = previousLabels;
+        previousLabels = currentLabels;
+        currentLabels = tmp;
+        rows++;
+    }
+
+    /**
+     * Records the clusters of the previous row that are not connected to the current row. The
+     * roots reached from the current row are marked first.
+     */
+    private void finishDisconnectedClusters() {
+        for (int col = 0; col < width; col++) {
+            if (currentLabels[col] != BLOCKED) {
+                reached[find(currentLabels[col])] = true;
+            }
+        }
+        for (int label = 0; label < labelCount; label++) {
+            if (parent[label] == label && !reached[label]) {
+                recordCluster(size[label]);
+            }
+        }
+    }
+
+    /**
+     * Relabels the current row to 0..k-1 in the order of the first occurrence of the roots, every
+     * reached root is unmarked when it gets its new label
+     */
+    private void compact() {
+        int count = 0;
+        for (int col = 0; col < width; col++) {
+            if (currentLabels[col] == BLOCKED) {
+                continue;
+            }
+            int root = find(currentLabels[col]);
+            if (reached[root]) {
+                compactLabel[root] = count;
+                compactSize[count] = size[root];
+                compactConnectedToTop[count] = connectedToTop[root];
+                reached[root] = false;
+                count++;
+            }
+            currentLabels[col] = compactLabel[root];
+        }
+        for (int label = 0; label < count; label++) {
+            parent[label] = label;
+        }
+
+        long[] sizes = size;
+        size = compactSize;
+        compactSize = sizes;
+        boolean[] flags = connectedToTop;
+        connectedToTop = compactConnectedToTop;
+        compactConnectedToTop = flags;
+
+        labelCount = count;
+    }
+
+    /**
+     * Finishes the labeling: the clusters of the last row are recorded and the system percolates
+     * if one of them is connected to the top
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        for (int label = 0; label < labelCount; label++) {
+            recordCluster(size[label]);
+            if (connectedToTop[label]) {
+                percolation = true;
+            }
+        }
+    }
+
+    private void recordCluster(long clusterSize) {
+        numberOfClusters++;
+        largestClusterSize = Math.max(largestClusterSize, clusterSize);
+        histogram[63 - Long.numberOfLeadingZeros(clusterSize)]++;
+    }
+
+    private int find(int label) {
+        while (parent[label] != label) {
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+
+    private int union(int p, int q) {
+        int rootP = find(p);
+        int rootQ = find(q);
+        if (rootP == rootQ) {
+            return rootP;
+        }
+        if (size[rootP] < size[rootQ]) {
+            int tmp = rootP;
+            rootP = rootQ;
+            rootQ = tmp;
+        }
+        parent[rootQ] = rootP;
+        size[rootP] += size[rootQ];
+        connectedToTop[rootP] |= connectedToTop[rootQ];
+        return rootP;
+    }
+
+    private void checkFinished() {
+        if (!finished) {
+            throw new IllegalStateException("finish() should be called first");
+        }
+    }
+
+    /**
+     * Returns true if a cluster of the last row is connected to the first row
+     *
+     * @return true, if the system percolates
+     */
+    public boolean percolates() {
+        checkFinished();
+        return percolation;
+    }
+
+    /**
+     * Returns the number of rows added
+     *
+     * @return the number of rows
+     */
+    public long rows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of open sites
+     *
+     * @return the number of open sites
+     */
+    public long numberOfOpenSites() {
+        return numberOfOpenSites;
+    }
+
+    /**
+     * Returns the number of clusters of open sites
+     *
+     * @return the number of clusters
+     */
+    public long numberOfClusters() {
+        checkFinished();
+        return numberOfClusters;
+    }
+
+    /**
+     * Returns the number of sites in the largest cluster
+     *
+     * @return the size of the largest cluster
+     */
+    public long largestClusterSize() {
+        checkFinished();
+        return largestClusterSize;
+    }
+
+    /**
+     * Returns the mean number of sites of the clusters, NaN if there are no clusters
+     *
+     * @return the mean cluster size
+     */
+    public double meanClusterSize() {
+        checkFinished();
+        return numberOfClusters == 0 ? Double.NaN : (double) numberOfOpenSites / numberOfClusters;
+    }
+
+    /**
+     * Returns the cluster size histogram: element i is the number of clusters with size in [2^i,
+     * 2^(i+1))
+     *
+     * @return a copy of the histogram
+     */
+    public long[] clusterSizeHistogram() {
+        checkFinished();
+        return histogram.clone();
+    }
+
+    // labels the file given as the first argument, or a random width-by-rows grid: width rows p seed
+    public static void main(String[] args) throws IOException {
+        HoshenKopelman labeling;
+        if (args.length == 1) {
+            labeling = read(Paths.get(args[0]));
+        }
+        else {
+            labeling = random(Integer.parseInt(args[0]), Long.parseLong(args[1]),
+                              Double.parseDouble(args[2]), Long.parseLong(args[3]));
+        }
+        StdOut.println("percolates           = " + labeling.percolates());
+        StdOut.println("open sites           = " + labeling.numberOfOpenSites());
+        StdOut.println("clusters             = " + labeling.numberOfClusters());
+        StdOut.println("largest cluster size = " + labeling.largestClusterSize());
+        StdOut.println("mean cluster size    = " + labeling.meanClusterSize());
+    }
+}
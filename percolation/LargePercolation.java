@@ -0,0 +1,271 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Percolation for grids with billions of sites. The sites are indexed with <code>long</code>s and
+ * each site is one packed <code>long</code> kept off-heap in direct buffers:
+ * <ul>
+ * <li>bits 0-47: parent index + 1 in the union-find, 0 if the site is a root</li>
+ * <li>bits 48-53: rank of the root</li>
+ * <li>bit 61: site open, bit 62: connected to top, bit 63: connected to bottom</li>
+ * </ul>
+ * A zero word is a blocked root site, so the zero-filled buffers need no initialization. A direct
+ * buffer can not be larger than 2 GiB, the words are split into chunks of 2^27 longs (1 GiB).
+ * <p>
+ * A grid takes 8 bytes per site of direct memory, 8 * n^2 bytes in total, and almost nothing of
+ * the heap. The direct memory of the JVM is limited by <code>-XX:MaxDirectMemorySize</code>,
+ * which defaults to the maximum heap size, so it has to be set to at least 8 * n^2 bytes: for
+ * example <code>-XX:MaxDirectMemorySize=32g</code> for n = 65536. The buffers are freed only when
+ * the garbage collector collects them; {@link #close()} drops the references to them, so the
+ * memory can be reclaimed even if this object is still reachable, and it can be used in a
+ * try-with-resources block.
+ * <p>
+ * The row and column indices are between <code>1</code> and <code>n</code>, like in {@link
+ * Percolation}.
+ */
+public class LargePercolation implements AutoCloseable {
+
+    private static final long PARENT_MASK = (1L << 48) - 1;
+    private static final int RANK_SHIFT = 48;
+    private static final long RANK_MASK = 0x3FL << RANK_SHIFT;
+
+    private static final long SITE_OPEN = 1L << 61;
+    private static final long CONNECTED_TO_TOP = 1L << 62;
+    private static final long CONNECTED_TO_BOTTOM = 1L << 63;
+    private static final long CONNECTED_TO_BOTH_TOP_AND_BOTTOM = CONNECTED_TO_TOP
+            | CONNECTED_TO_BOTTOM;
+
+    /**
+     * Maximum number of sites: the largest parent index + 1 has to fit into 48 bits
+     */
+    private static final long MAX_SITES = PARENT_MASK;
+
+    private static final int CHUNK_SHIFT = 27;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final int gridSize;
+
+    /**
+     * The words of the sites, null after {@link #close()}
+     */
+    private LongBuffer[] chunks;
+
+    private boolean percolation = false;
+    private long numberOfOpenSites = 0;
+
+    /**
+     * Create n-by-n grid, with all sites blocked
+     *
+     * @param n grid dimension
+     * @throws IllegalArgumentException if n < 1 or n * n is more than 2^48 - 1
+     */
+    public LargePercolation(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("grid size should be > 0");
+        }
+        long sites = (long) n * n;
+        if (sites > MAX_SITES) {
+            throw new IllegalArgumentException("grid size should be at most 2^24 - 1: " + n);
+        }
+        this.gridSize = n;
+
+        int chunkCount = (int) ((sites + CHUNK_MASK) >>> CHUNK_SHIFT);
+        this.chunks = new LongBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            long chunkSites = Math.min(CHUNK_MASK + 1, sites - ((long) i << CHUNK_SHIFT));
+            chunks[i] = ByteBuffer.allocateDirect((int) (chunkSites * Long.BYTES))
+                                  .order(ByteOrder.nativeOrder())
+                                  .asLongBuffer();
+        }
+    }
+
+    private long word(long site) {
+        return chunks[(int) (site >>> CHUNK_SHIFT)].get((int) (site & CHUNK_MASK));
+    }
+
+    private void setWord(long site, long word) {
+        chunks[(int) (site >>> CHUNK_SHIFT)].put((int) (site & CHUNK_MASK), word);
+    }
+
+    private long parentOf(long site, long word) {
+        long parent = word & PARENT_MASK;
+        return parent == 0 ? site : parent - 1;
+    }
+
+    /**
+     * Returns the root of the site, halving the path on the way
+     *
+     * @param site the site index
+     * @return the root index
+     */
+    private long find(long site) {
+        long word = word(site);
+        long parent = parentOf(site, word);
+        while (parent != site) {
+            long parentWord = word(parent);
+            long grandParent = parentOf(parent, parentWord);
+            setWord(site, (word & ~PARENT_MASK) | (grandParent + 1));
+            site = grandParent;
+            word = word(site);
+            parent = parentOf(site, word);
+        }
+        return site;
+    }
+
+    /**
+     * Merges the components of two sites by rank, the flags of the two roots are OR-ed into the
+     * new root
+     *
+     * @param p the first site
+     * @param q the second site
+     * @return the root of the merged component
+     */
+    private long union(long p, long q) {
+        long rootP = find(p);
+        long rootQ = find(q);
+        if (rootP == rootQ) {
+            return rootP;
+        }
+        long wordP = word(rootP);
+        long wordQ = word(rootQ);
+        if ((wordP & RANK_MASK) < (wordQ & RANK_MASK)) {
+            long tmp = rootP;
+            rootP = rootQ;
+            rootQ = tmp;
+            tmp = wordP;
+            wordP = wordQ;
+            wordQ = tmp;
+        }
+        long flags = wordQ & CONNECTED_TO_BOTH_TOP_AND_BOTTOM;
+        if ((wordP & RANK_MASK) == (wordQ & RANK_MASK)) {
+            wordP += 1L << RANK_SHIFT;
+        }
+        setWord(rootQ, (wordQ & ~PARENT_MASK) | (rootP + 1));
+        setWord(rootP, wordP | flags);
+        return rootP;
+    }
+
+    private long getSiteIndex(int row, int col) {
+        return (long) (row - 1) * gridSize + (col - 1);
+    }
+
+    private void checkNotClosed() {
+        if (chunks == null) {
+            throw new IllegalStateException("the grid is closed");
+        }
+    }
+
+    private void checkCoordinates(int row, int col) {
+        checkNotClosed();
+        if (row < 1 || row > gridSize || col < 1 || col > gridSize) {
+            throw new IllegalArgumentException("Invalid coordinate: (" + row + ", " + col
+                                                       + ") The row and col should be >= 1 and <= grid dimension");
+        }
+    }
+
+    private boolean isOpen(long site) {
+        return (word(site) & SITE_OPEN) != 0;
+    }
+
+    /**
+     * open site (row, col) if it is not open already
+     *
+     * @param row row index (1-gridSize)
+     * @param col column index (1-gridSize)
+     * @throws IllegalStateException if the grid is closed
+     */
+    public void open(int row, int col) {
+        checkCoordinates(row, col);
+        long site = getSiteIndex(row, col);
+        long word = word(site);
+        if ((word & SITE_OPEN) != 0) {
+            return;
+        }
+
+        word |= SITE_OPEN;
+        if (row == 1) {
+            word |= CONNECTED_TO_TOP;
+        }
+        if (row == gridSize) {
+            word |= CONNECTED_TO_BOTTOM;
+        }
+        setWord(site, word);
+        numberOfOpenSites++;
+
+        long root = site;
+        if (row > 1 && isOpen(site - gridSize)) {
+            root = union(root, site - gridSize);
+        }
+        if (row < gridSize && isOpen(site + gridSize)) {
+            root = union(root, site + gridSize);
+        }
+        if (col > 1 && isOpen(site - 1)) {
+            root = union(root, site - 1);
+        }
+        if (col < gridSize && isOpen(site + 1)) {
+            root = union(root, site + 1);
+        }
+
+        if ((word(root) & CONNECTED_TO_BOTH_TOP_AND_BOTTOM) == CONNECTED_TO_BOTH_TOP_AND_BOTTOM) {
+            percolation = true;
+        }
+    }
+
+    /**
+     * Returns true if the site (row, col) open
+     *
+     * @param row row index (1-gridSize)
+     * @param col column index (1-gridSize)
+     * @return true if the site is open (non blocked), false if the site is blocked
+     * @throws IllegalStateException if the grid is closed
+     */
+    public boolean isOpen(int row, int col) {
+        checkCoordinates(row, col);
+        return isOpen(getSiteIndex(row, col));
+    }
+
+    /**
+     * is site (row, col) full?
+     *
+     * @param row row index
+     * @param col column index
+     * @return true if the site is open and connected to the top
+     * @throws IllegalStateException if the grid is closed
+     */
+    public boolean isFull(int row, int col) {
+        checkCoordinates(row, col);
+        long site = getSiteIndex(row, col);
+        return isOpen(site) && (word(find(site)) & CONNECTED_TO_TOP) != 0;
+    }
+
+    /**
+     * Returns true if the system percolate?
+     *
+     * @return true, if the system percolates
+     * @throws IllegalStateException if the grid is closed
+     */
+    public boolean percolates() {
+        checkNotClosed();
+        return percolation;
+    }
+
+    /**
+     * Returns the number of open sites
+     *
+     * @return the number of open sites
+     * @throws IllegalStateException if the grid is closed
+     */
+    public long numberOfOpenSites() {
+        checkNotClosed();
+        return numberOfOpenSites;
+    }
+
+    /**
+     * Drops the direct buffers of the sites, the grid can not be opened or queried after this
+     */
+    @Override
+    public void close() {
+        chunks = null;
+    }
+}
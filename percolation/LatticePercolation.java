@@ -0,0 +1,402 @@
+import edu.princeton.cs.algs4.StdOut;
+
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/**
+ * Site or bond percolation on a rectangular (rows x cols) or simple cubic (layers x rows x cols)
+ * lattice, using the single union-find with TOP/BOTTOM flags of {@link Percolation} to avoid
+ * backwash (see <code>readme.md</code>). The system percolates along the rows: the sites of the
+ * first row are connected to the top, the sites of the last row to the bottom.
+ * <p>
+ * The union-find works on a padded copy of the lattice with one blocked site of border on every
+ * side, so the neighbours of a site are at the fixed offsets precomputed for the lattice, and the
+ * inner loop of {@link #openSite(int)} has no boundary checks.
+ * <p>
+ * The sites are numbered from <code>0</code> to <code>numberOfSites() - 1</code> in (layer, row,
+ * col) order. The bonds are numbered from <code>0</code> to <code>numberOfBonds() - 1</code>:
+ * first the bonds to the next column, then to the next row, then to the next layer, each group in
+ * the (layer, row, col) order of their first site.
+ */
+public class LatticePercolation {
+
+    /**
+     * The percolation model
+     */
+    public enum Mode {
+        /**
+         * Sites are opened, neighbouring open sites are connected
+         */
+        SITE,
+
+        /**
+         * Every site is present, bonds between neighbouring sites are opened
+         */
+        BOND
+    }
+
+    private final Mode mode;
+
+    /**
+     * cols, rows, layers of the lattice (layers is 1 for a rectangular lattice)
+     */
+    private final int[] sizes;
+
+    /**
+     * Offset of the next column, row and layer in the padded lattice
+     */
+    private final int[] strides;
+
+    /**
+     * Offsets of all the neighbours of a site in the padded lattice
+     */
+    private final int[] neighbourOffsets;
+
+    /**
+     * True if the lattice has a padding layer in front and behind (cubic lattice)
+     */
+    private final boolean padLayers;
+
+    private final int numberOfBonds;
+
+    private final FlaggedUnionFind unionFind;
+    private final BitSet openBonds;
+
+    private boolean percolation = false;
+    private int numberOfOpenSites = 0;
+    private int numberOfOpenBonds = 0;
+
+    private LatticePercolation(int layers, int rows, int cols, boolean cubic, Mode mode) {
+        if (layers < 1 || rows < 1 || cols < 1) {
+            throw new IllegalArgumentException("lattice sizes should be > 0");
+        }
+        if (mode == null) {
+            throw new IllegalArgumentException("mode should not be null");
+        }
+        this.mode = mode;
+        this.padLayers = cubic;
+        this.sizes = new int[] { cols, rows, layers };
+
+        int paddedCols = cols + 2;
+        int paddedRows = rows + 2;
+        int paddedLayers = cubic ? layers + 2 : 1;
+        this.strides = new int[] { 1, paddedCols, paddedCols * paddedRows };
+        this.neighbourOffsets = cubic
+                                ? new int[] { -strides[0], strides[0], -strides[1], strides[1],
+                                              -strides[2], strides[2] }
+                                : new int[] { -strides[0], strides[0], -strides[1], strides[1] };
+        this.unionFind = new FlaggedUnionFind(
+                Math.multiplyExact(Math.multiplyExact(paddedCols, paddedRows), paddedLayers));
+        this.openBonds = mode == Mode.BOND ? new BitSet() : null;
+
+        int bonds = 0;
+        for (int direction = 0; direction < (cubic ? 3 : 2); direction++) {
+            bonds += bondsInDirection(direction);
+        }
+        this.numberOfBonds = bonds;
+
+        if (mode == Mode.BOND) {
+            // every site is present, only the bonds are opened
+            for (int site = 0; site < numberOfSites(); site++) {
+                int row = site / cols % rows;
+                unionFind.setFlag(paddedIndex(site), siteFlags(row));
+            }
+            numberOfOpenSites = numberOfSites();
+            if (rows == 1) {
+                percolation = true;
+            }
+        }
+    }
+
+    /**
+     * Creates a rows-by-cols lattice with everything blocked
+     *
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param mode site or bond percolation
+     * @return the lattice
+     * @throws IllegalArgumentException if a size is less than 1 or mode is null
+     */
+    public static LatticePercolation rectangular(int rows, int cols, Mode mode) {
+        return new LatticePercolation(1, rows, cols, false, mode);
+    }
+
+    /**
+     * Creates a layers-by-rows-by-cols simple cubic lattice with everything blocked
+     *
+     * @param layers number of layers
+     * @param rows   number of rows
+     * @param cols   number of columns
+     * @param mode   site or bond percolation
+     * @return the lattice
+     * @throws IllegalArgumentException if a size is less than 1 or mode is null
+     */
+    public static LatticePercolation cubic(int layers, int rows, int cols, Mode mode) {
+        return new LatticePercolation(layers, rows, cols, true, mode);
+    }
+
+    /**
+     * Returns the OPEN and TOP/BOTTOM flags of a site in the given row
+     *
+     * @param row 0-based row of the site
+     * @return the flags of the opened site
+     */
+    private int siteFlags(int row) {
+        int flags = FlaggedUnionFind.SITE_OPEN;
+        if (row == 0) {
+            flags |= FlaggedUnionFind.CONNECTED_TO_TOP;
+        }
+        if (row == sizes[1] - 1) {
+            flags |= FlaggedUnionFind.CONNECTED_TO_BOTTOM;
+        }
+        return flags;
+    }
+
+    /**
+     * Returns the index in the padded lattice of the site
+     *
+     * @param site the site number
+     * @return the padded index
+     */
+    private int paddedIndex(int site) {
+        int col = site % sizes[0];
+        int rest = site / sizes[0];
+        int row = rest % sizes[1];
+        int layer = rest / sizes[1];
+        return (layer + (padLayers ? 1 : 0)) * strides[2] + (row + 1) * strides[1] + col + 1;
+    }
+
+    /**
+     * Returns the number of the site of a rectangular lattice
+     *
+     * @param row row index (1-rows)
+     * @param col column index (1-cols)
+     * @return the site number
+     * @throws IllegalArgumentException if the coordinates are outside the lattice
+     */
+    public int siteIndex(int row, int col) {
+        return siteIndex(1, row, col);
+    }
+
+    /**
+     * Returns the number of the site of a cubic lattice
+     *
+     * @param layer layer index (1-layers)
+     * @param row   row index (1-rows)
+     * @param col   column index (1-cols)
+     * @return the site number
+     * @throws IllegalArgumentException if the coordinates are outside the lattice
+     */
+    public int siteIndex(int layer, int row, int col) {
+        if (col < 1 || col > sizes[0] || row < 1 || row > sizes[1] || layer < 1
+                || layer > sizes[2]) {
+            throw new IllegalArgumentException(
+                    "Invalid coordinate: (" + layer + ", " + row + ", " + col + ")");
+        }
+        return ((layer - 1) * sizes[1] + row - 1) * sizes[0] + col - 1;
+    }
+
+    /**
+     * Returns the number of sites of the lattice
+     *
+     * @return layers * rows * cols
+     */
+    public int numberOfSites() {
+        return sizes[0] * sizes[1] * sizes[2];
+    }
+
+    /**
+     * Returns the number of bonds between neighbouring sites of the lattice
+     *
+     * @return the number of bonds
+     */
+    public int numberOfBonds() {
+        return numberOfBonds;
+    }
+
+    private int bondsInDirection(int direction) {
+        int bonds = 1;
+        for (int axis = 0; axis < sizes.length; axis++) {
+            bonds *= axis == direction ? sizes[axis] - 1 : sizes[axis];
+        }
+        return bonds;
+    }
+
+    /**
+     * Opens the site if it is not open already, site mode only
+     *
+     * @param site the site number
+     * @throws IllegalArgumentException if site is out of range
+     * @throws IllegalStateException    if the lattice is in bond mode
+     */
+    public void openSite(int site) {
+        if (mode != Mode.SITE) {
+            throw new IllegalStateException("sites can be opened only in site mode");
+        }
+        checkSite(site);
+        int index = paddedIndex(site);
+        if (unionFind.isOpen(index)) {
+            return;
+        }
+        unionFind.setFlag(index, siteFlags(site / sizes[0] % sizes[1]));
+        numberOfOpenSites++;
+
+        int root = index;
+        for (int offset : neighbourOffsets) {
+            if (unionFind.isOpen(index + offset)) {
+                root = unionFind.union(root, index + offset);
+            }
+        }
+        checkPercolation(root);
+    }
+
+    /**
+     * Opens the bond if it is not open already, bond mode only
+     *
+     * @param bond the bond number
+     * @throws IllegalArgumentException if bond is out of range
+     * @throws IllegalStateException    if the lattice is in site mode
+     */
+    public void openBond(int bond) {
+        if (mode != Mode.BOND) {
+            throw new IllegalStateException("bonds can be opened only in bond mode");
+        }
+        if (bond < 0 || bond >= numberOfBonds) {
+            throw new IllegalArgumentException(
+                    "bond should be between 0 and " + (numberOfBonds - 1) + ": " + bond);
+        }
+        if (openBonds.get(bond)) {
+            return;
+        }
+        openBonds.set(bond);
+        numberOfOpenBonds++;
+
+        int direction = 0;
+        int rest = bond;
+        while (rest >= bondsInDirection(direction)) {
+            rest -= bondsInDirection(direction);
+            direction++;
+        }
+        // decode the first site with the size of the bond direction reduced by one
+        int index = padLayers ? strides[2] : 0;
+        for (int axis = 0; axis < sizes.length; axis++) {
+            int size = axis == direction ? sizes[axis] - 1 : sizes[axis];
+            index += (rest % size + (axis < 2 ? 1 : 0)) * strides[axis];
+            rest /= size;
+        }
+        checkPercolation(unionFind.union(index, index + strides[direction]));
+    }
+
+    private void checkPercolation(int root) {
+        if ((unionFind.flags(root) & FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM)
+                == FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM) {
+            percolation = true;
+        }
+    }
+
+    private void checkSite(int site) {
+        if (site < 0 || site >= numberOfSites()) {
+            throw new IllegalArgumentException(
+                    "site should be between 0 and " + (numberOfSites() - 1) + ": " + site);
+        }
+    }
+
+    /**
+     * Returns true if the site is open, in bond mode every site is open
+     *
+     * @param site the site number
+     * @return true if the site is open
+     */
+    public boolean isOpen(int site) {
+        checkSite(site);
+        return unionFind.isOpen(paddedIndex(site));
+    }
+
+    /**
+     * Returns true if the site is open and connected to the first row
+     *
+     * @param site the site number
+     * @return true if the site is full
+     */
+    public boolean isFull(int site) {
+        checkSite(site);
+        int index = paddedIndex(site);
+        return unionFind.isOpen(index)
+                && (unionFind.rootFlags(index) & FlaggedUnionFind.CONNECTED_TO_TOP) != 0;
+    }
+
+    /**
+     * Returns true if the system percolates
+     *
+     * @return true, if the system percolates
+     */
+    public boolean percolates() {
+        return percolation;
+    }
+
+    /**
+     * Returns the number of open sites, in bond mode all the sites
+     *
+     * @return the number of open sites
+     */
+    public int numberOfOpenSites() {
+        return numberOfOpenSites;
+    }
+
+    /**
+     * Returns the number of open bonds, 0 in site mode
+     *
+     * @return the number of open bonds
+     */
+    public int numberOfOpenBonds() {
+        return numberOfOpenBonds;
+    }
+
+    /**
+     * Opens sites (site mode) or bonds (bond mode) in a random permutation order until the system
+     * percolates
+     *
+     * @param random the random stream
+     * @return the fraction of the sites or bonds open when the system percolated
+     */
+    public double openRandomlyUntilPercolation(SplittableRandom random) {
+        int count = mode == Mode.SITE ? numberOfSites() : numberOfBonds;
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        int opened = 0;
+        for (int i = 0; i < count && !percolation; i++) {
+            int j = random.nextInt(i, count);
+            int element = order[j];
+            order[j] = order[i];
+            order[i] = element;
+            if (mode == Mode.SITE) {
+                openSite(element);
+            }
+            else {
+                openBond(element);
+            }
+            opened++;
+        }
+        return (double) opened / count;
+    }
+
+    // estimates the threshold: SITE|BOND trials seed rows cols [layers]
+    public static void main(String[] args) {
+        Mode mode = Mode.valueOf(args[0]);
+        int trials = Integer.parseInt(args[1]);
+        SplittableRandom random = new SplittableRandom(Long.parseLong(args[2]));
+        int rows = Integer.parseInt(args[3]);
+        int cols = Integer.parseInt(args[4]);
+        RunningStatistics statistics = new RunningStatistics();
+        for (int i = 0; i < trials; i++) {
+            LatticePercolation lattice = args.length > 5
+                                         ? cubic(Integer.parseInt(args[5]), rows, cols, mode)
+                                         : rectangular(rows, cols, mode);
+            statistics.add(lattice.openRandomlyUntilPercolation(random.split()));
+        }
+        StdOut.println("mean                    = " + statistics.mean());
+        StdOut.println("stddev                  = " + statistics.stddev());
+    }
+}
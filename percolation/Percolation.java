@@ -1,4 +1,4 @@
-import edu.princeton.cs.algs4.WeightedQuickUnionUF;
+import java.util.BitSet;
 
 /**
  * <p>By convention, the row and column indices are integers between <code>1</code> and
@@ -12,32 +12,6 @@ import edu.princeton.cs.algs4.WeightedQuickUnionUF;
  */
 public class Percolation {
 
-    /**
-     * Index of the virtual top site
-     */
-    private static final int VIRTUAL_TOP_SITE_INDEX = 0;
-
-    /**
-     * bit flag indicating that the site is open
-     */
-    private static final int SITE_OPEN = 1;
-
-    /**
-     * bit flag indicationg that the site is connected to the top
-     */
-    private static final int SITE_CONNECTED_TO_TOP = 2;
-
-    /**
-     * bit flag indicating that the site is connecte to the bottom
-     */
-    private static final int SITE_CONNECTED_TO_BOTTOM = 4;
-
-    /**
-     * Connected to the top and bottom - means percolation
-     */
-    private static final int CONNECTED_TO_BOTH_TOP_AND_BOTTOM = SITE_CONNECTED_TO_TOP
-            | SITE_CONNECTED_TO_BOTTOM;
-
     /**
      * Becomes true when the system percolates
      */
@@ -49,24 +23,26 @@ public class Percolation {
     private final int gridSize;
 
     /**
-     * Available flags:
-     * <ul>
-     * <li>SITE_CONNECTED_TO_BOTTOM = 4</li>
-     * <li>SITE_CONNECTED_TO_TOP = 2</li>
-     * <li>SITE_OPEN = 1</li>
-     * </ul>
+     * Number of open sites in the grid
+     */
+    private int numberOfOpenSites = 0;
+
+    /**
+     * Number of sites in the largest cluster of open sites
      */
-    private byte[][] grid;
+    private int largestClusterSize = 0;
 
     /**
-     * Number of open sites in the grid
+     * The union-find over the flat site indices, it also stores the open/top/bottom flags of the
+     * sites in place of the 2D grid
      */
-    private int numberOfOpenSites = 0;
+    private final FlaggedUnionFind unionFind;
 
     /**
-     * The union-find algorithm implementation
+     * Element s is the number of clusters of open sites with s sites, updated on every open and
+     * merge. Null unless the cluster sizes are tracked.
      */
-    private final WeightedQuickUnionUF unionFind;
+    private final int[] clusterSizeCount;
 
     /**
      * Create n-by-n grid, with all sites blocked
@@ -75,16 +51,29 @@ public class Percolation {
      * @throws IllegalArgumentException if n < 1
      */
     public Percolation(int n) {
+        this(n, false);
+    }
+
+    /**
+     * Create n-by-n grid, with all sites blocked. If the cluster sizes are tracked, the histogram
+     * of the cluster sizes is updated on every open, so {@link #numberOfClustersOfSize(int)} is
+     * O(1); otherwise opening does not pay for it and the clusters are counted on every query.
+     *
+     * @param n                 grid dimension
+     * @param trackClusterSizes true to update the cluster size histogram incrementally
+     * @throws IllegalArgumentException if n < 1
+     */
+    public Percolation(int n, boolean trackClusterSizes) {
         if (n < 1) {
             throw new IllegalArgumentException("grid size should be > 0");
         }
         this.gridSize = n;
-        this.grid = new byte[n][n];
-        this.unionFind = new WeightedQuickUnionUF(gridSize * gridSize + 2);
+        this.unionFind = new FlaggedUnionFind(gridSize * gridSize, true);
+        this.clusterSizeCount = trackClusterSizes ? new int[gridSize * gridSize + 1] : null;
     }
 
     /**
-     * Returns the index of site for the union-find
+     * Returns the flat index of the site: <code>(row - 1) * gridSize + (col - 1)</code>
      *
      * @param row the row index (1-gridSize)
      * @param col the column index (1-gridSize)
@@ -92,7 +81,7 @@ public class Percolation {
      */
     private int getSiteIndex(int row, int col) {
 
-        return (row - 1) * gridSize + (col - 1) + 1;
+        return (row - 1) * gridSize + (col - 1);
     }
 
     /**
@@ -119,7 +108,21 @@ public class Percolation {
      */
     public boolean isFull(int row, int col) {
         checkCoordinates(row, col);
-        return unionFind.connected(VIRTUAL_TOP_SITE_INDEX, getSiteIndex(row, col));
+        int siteIndex = getSiteIndex(row, col);
+        return unionFind.isOpen(siteIndex)
+                && (unionFind.rootFlags(siteIndex) & FlaggedUnionFind.CONNECTED_TO_TOP) != 0;
+    }
+
+    /**
+     * Returns all the full sites in one pass. Every site is linked directly to its root on the way,
+     * so each root is walked to once and the TOP flag of the other sites is read with a single
+     * lookup, see {@link FlaggedUnionFind#sitesWithRootFlag(int)}.
+     *
+     * @return the full sites, bit <code>(row - 1) * n + (col - 1)</code> is set if (row, col) is
+     * full
+     */
+    public BitSet fullSites() {
+        return BitSet.valueOf(unionFind.sitesWithRootFlag(FlaggedUnionFind.CONNECTED_TO_TOP));
     }
 
     /**
@@ -133,22 +136,6 @@ public class Percolation {
         return row >= 1 && row <= gridSize && col >= 1 && col <= gridSize;
     }
 
-    /**
-     * Returns the flags for the site
-     *
-     * @param row row index (1-gridSize)
-     * @param col column index (1-gridSize)
-     * @return the flag
-     */
-    private byte getGridValue(int row, int col) {
-        if (!isValidCoordinate(row, col)) {
-            return SITE_OPEN;
-        }
-        else {
-            return grid[row - 1][col - 1];
-        }
-    }
-
     /**
      * Returns true if the site (row, col) open
      *
@@ -158,7 +145,7 @@ public class Percolation {
      */
     public boolean isOpen(int row, int col) {
         checkCoordinates(row, col);
-        return (grid[row - 1][col - 1] & SITE_OPEN) == SITE_OPEN;
+        return unionFind.isOpen(getSiteIndex(row, col));
     }
 
 
@@ -172,133 +159,180 @@ public class Percolation {
     }
 
     /**
-     * Returns the flag of the root of the site (row,col)
+     * open site (row, col) if it is not open already
      *
-     * @param row the row index
-     * @param col the column index
-     * @return the flag of the root of the site
+     * @param row row index (1-gridSize)
+     * @param col column index (1-gridSize)
      */
-    private int getRootFlag(int row, int col) {
-
-        int siteIndex = getSiteIndex(row, col);
-
-        int siteRootIndex = unionFind.find(siteIndex);
-
-        int rootRow = (siteRootIndex - 1) / gridSize + 1;
-        int rootCol = (siteRootIndex - 1) % gridSize + 1;
-
-        int result = grid[rootRow - 1][rootCol - 1];
-
-        return result;
+    public void open(int row, int col) {
+        checkCoordinates(row, col);
+        openSite(getSiteIndex(row, col), row - 1, col - 1);
     }
 
     /**
-     * Updates (by OR-ing the old and new value) the root of the site (row,col) with the given
-     * flags
+     * Opens all the sites of the batch in order. The whole batch is validated first, nothing is
+     * opened if any of the indices is invalid.
      *
-     * @param row  the row index
-     * @param col  the column index
-     * @param flag the flag
-     * @return the new value (old | flag)
+     * @param siteIndices flat site indices <code>(row - 1) * n + (col - 1)</code>
+     * @return the position in the batch of the site whose opening made the system percolate, -1 if
+     * the system did not start to percolate during this batch
+     * @throws IllegalArgumentException if siteIndices is null or an index is outside 0 to n*n-1
      */
-    private int updateRoot(int row, int col, int flag) {
-        int siteIndex = getSiteIndex(row, col);
-
-        int siteRootIndex = unionFind.find(siteIndex);
+    public int openAll(int[] siteIndices) {
+        if (siteIndices == null) {
+            throw new IllegalArgumentException("siteIndices should not be null");
+        }
+        int numberOfSites = gridSize * gridSize;
+        for (int i = 0; i < siteIndices.length; i++) {
+            if (siteIndices[i] < 0 || siteIndices[i] >= numberOfSites) {
+                throw new IllegalArgumentException("Invalid site index at position " + i + ": "
+                                                           + siteIndices[i]);
+            }
+        }
 
-        int rootRow = (siteRootIndex - 1) / gridSize + 1;
-        int rootCol = (siteRootIndex - 1) % gridSize + 1;
+        boolean percolatedBefore = percolation;
+        int i = 0;
+        if (!percolatedBefore) {
+            for (; i < siteIndices.length && !percolation; i++) {
+                openSite(siteIndices[i]);
+            }
+        }
+        int percolatedAt = percolation && !percolatedBefore ? i - 1 : -1;
+        for (; i < siteIndices.length; i++) {
+            openSite(siteIndices[i]);
+        }
+        return percolatedAt;
+    }
 
-        grid[rootRow - 1][rootCol - 1] |= flag;
+    /**
+     * Opens all the sites (rows[i], cols[i]) of the batch in order. The whole batch is validated
+     * first, nothing is opened if any of the coordinates is invalid.
+     *
+     * @param rows row indices (1-gridSize)
+     * @param cols column indices (1-gridSize)
+     * @return the position in the batch of the site whose opening made the system percolate, -1 if
+     * the system did not start to percolate during this batch
+     * @throws IllegalArgumentException if rows or cols is null, their lengths differ or a
+     *                                  coordinate is invalid
+     */
+    public int openAll(int[] rows, int[] cols) {
+        if (rows == null || cols == null || rows.length != cols.length) {
+            throw new IllegalArgumentException("rows and cols should have the same length");
+        }
+        for (int i = 0; i < rows.length; i++) {
+            checkCoordinates(rows[i], cols[i]);
+        }
 
-        int updatedValue = grid[rootRow - 1][rootCol - 1];
+        boolean percolatedBefore = percolation;
+        int i = 0;
+        if (!percolatedBefore) {
+            for (; i < rows.length && !percolation; i++) {
+                openSite(getSiteIndex(rows[i], cols[i]), rows[i] - 1, cols[i] - 1);
+            }
+        }
+        int percolatedAt = percolation && !percolatedBefore ? i - 1 : -1;
+        for (; i < rows.length; i++) {
+            openSite(getSiteIndex(rows[i], cols[i]), rows[i] - 1, cols[i] - 1);
+        }
+        return percolatedAt;
+    }
 
-        return updatedValue;
+    /**
+     * Opens the site with the given flat index <code>(row - 1) * n + (col - 1)</code> without
+     * range checking
+     *
+     * @param siteIndex the flat index of the site (0 to n*n-1)
+     */
+    void openSite(int siteIndex) {
+        int row0 = siteIndex / gridSize;
+        openSite(siteIndex, row0, siteIndex - row0 * gridSize);
     }
 
     /**
-     * open site (row, col) if it is not open already
+     * Opens the site with the given flat index without range checking. The 0-based row and column
+     * are passed in, so no division is needed to find the neighbours.
      *
-     * @param row row index (1-gridSize)
-     * @param col column index (1-gridSize)
+     * @param siteIndex the flat index of the site
+     * @param row0      0-based row of the site
+     * @param col0      0-based column of the site
      */
-    public void open(int row, int col) {
-        checkCoordinates(row, col);
+    private void openSite(int siteIndex, int row0, int col0) {
 
-        if (isOpen(row, col)) {
+        if (unionFind.isOpen(siteIndex)) {
             return;
         }
 
-        grid[row - 1][col - 1] |= SITE_OPEN;
+        int centerFlag = FlaggedUnionFind.SITE_OPEN;
 
-        this.numberOfOpenSites++;
-
-        int northOpen = getGridValue(row - 1, col) & SITE_OPEN;
-        int southOpen = getGridValue(row + 1, col) & SITE_OPEN;
-        int westOpen = getGridValue(row, col - 1) & SITE_OPEN;
-        int eastOpen = getGridValue(row, col + 1) & SITE_OPEN;
-
-        int centerSiteIndex = getSiteIndex(row, col);
-
-        int northRootFlag = 0;
-        int southRootFlag = 0;
-        int eastRootFlag = 0;
-        int westRootFlag = 0;
-        int centerFlag = 0;
-
-        // last row connects to virtual bottom
-        if (row == gridSize) {
-            centerFlag |= SITE_CONNECTED_TO_BOTTOM;
+        // first row is connected to the top, last row to the bottom
+        if (row0 == 0) {
+            centerFlag |= FlaggedUnionFind.CONNECTED_TO_TOP;
         }
-        // connect opened site with virtual top
-        if (row == 1) {
-
-            centerFlag |= SITE_CONNECTED_TO_TOP;
-
-            unionFind.union(centerSiteIndex, VIRTUAL_TOP_SITE_INDEX);
+        if (row0 == gridSize - 1) {
+            centerFlag |= FlaggedUnionFind.CONNECTED_TO_BOTTOM;
         }
+        unionFind.setFlag(siteIndex, centerFlag);
 
-        // NORTH connection
-        if (isValidCoordinate(row - 1, col) && northOpen == SITE_OPEN) {
-            int northSiteIndex = getSiteIndex(row - 1, col);
-            northRootFlag = getRootFlag(row - 1, col);
-
-            // connect to the north neighbour
-            unionFind.union(centerSiteIndex, northSiteIndex);
-        }
+        this.numberOfOpenSites++;
 
-        // SOUTH connection
-        if (isValidCoordinate(row + 1, col) && southOpen == SITE_OPEN) {
-            int southSiteIndex = getSiteIndex(row + 1, col);
-            southRootFlag = getRootFlag(row + 1, col);
+        int root = siteIndex;
 
-            unionFind.union(centerSiteIndex, southSiteIndex);
+        if (clusterSizeCount != null) {
+            clusterSizeCount[1]++;
         }
 
+        // NORTH
+        if (row0 > 0 && unionFind.isOpen(siteIndex - gridSize)) {
+            root = connect(root, siteIndex - gridSize);
+        }
+        // SOUTH
+        if (row0 < gridSize - 1 && unionFind.isOpen(siteIndex + gridSize)) {
+            root = connect(root, siteIndex + gridSize);
+        }
         // WEST
-        if (isValidCoordinate(row, col - 1) && westOpen == SITE_OPEN) {
-            int westSiteIndex = getSiteIndex(row, col - 1);
-            westRootFlag = getRootFlag(row, col - 1);
-
-            unionFind.union(centerSiteIndex, westSiteIndex);
+        if (col0 > 0 && unionFind.isOpen(siteIndex - 1)) {
+            root = connect(root, siteIndex - 1);
         }
-
         // EAST
-        if (isValidCoordinate(row, col + 1) && eastOpen == SITE_OPEN) {
-            int eastSiteIndex = getSiteIndex(row, col + 1);
-            eastRootFlag = getRootFlag(row, col + 1);
-
-            unionFind.union(centerSiteIndex, eastSiteIndex);
+        if (col0 < gridSize - 1 && unionFind.isOpen(siteIndex + 1)) {
+            root = connect(root, siteIndex + 1);
         }
 
-        int unionFlag = centerFlag | northRootFlag | southRootFlag | westRootFlag | eastRootFlag;
-
-        unionFlag = updateRoot(row, col, unionFlag);
+        largestClusterSize = Math.max(largestClusterSize, unionFind.componentSize(root));
 
-        if ((unionFlag & CONNECTED_TO_BOTH_TOP_AND_BOTTOM) == CONNECTED_TO_BOTH_TOP_AND_BOTTOM) {
+        if (!percolation
+                && (unionFind.flags(root) & FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM)
+                == FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM) {
             percolation = true;
+            if (PercolationMetrics.ENABLED) {
+                PercolationMetrics.percolated(
+                        (double) numberOfOpenSites / ((double) gridSize * gridSize));
+            }
         }
+    }
 
+    /**
+     * Merges the cluster of the open neighbour into the cluster of root. If the cluster sizes are
+     * tracked, the two clusters move to the bin of their combined size in the histogram.
+     *
+     * @param root      the root of the cluster of the site being opened
+     * @param neighbour an open neighbour of the site
+     * @return the root of the merged cluster
+     */
+    private int connect(int root, int neighbour) {
+        if (clusterSizeCount == null) {
+            return unionFind.union(root, neighbour);
+        }
+        int neighbourRoot = unionFind.find(neighbour);
+        if (neighbourRoot == root) {
+            return root;
+        }
+        int rootSize = unionFind.componentSize(root);
+        int neighbourSize = unionFind.componentSize(neighbourRoot);
+        clusterSizeCount[rootSize]--;
+        clusterSizeCount[neighbourSize]--;
+        clusterSizeCount[rootSize + neighbourSize]++;
+        return unionFind.union(root, neighbourRoot);
     }
 
     /**
@@ -309,4 +343,72 @@ public class Percolation {
     public int numberOfOpenSites() {
         return this.numberOfOpenSites;
     }
+
+    /**
+     * Returns the number of clusters of open sites: every opened site starts a new cluster and
+     * every merge of two clusters removes one
+     *
+     * @return the number of clusters
+     */
+    public int numberOfClusters() {
+        return numberOfOpenSites - unionFind.mergeCount();
+    }
+
+    /**
+     * Returns the number of sites in the largest cluster of open sites
+     *
+     * @return the size of the largest cluster
+     */
+    public int largestClusterSize() {
+        return largestClusterSize;
+    }
+
+    /**
+     * Returns the number of clusters of open sites with the given number of sites. It is O(1) if
+     * the cluster sizes are tracked, see {@link #Percolation(int, boolean)}; otherwise the clusters
+     * are counted from the roots of the union-find on every call, in O(n^2).
+     *
+     * @param size the cluster size (1 to n*n)
+     * @return the number of clusters with size sites
+     * @throws IllegalArgumentException if size is not between 1 and n*n
+     */
+    public int numberOfClustersOfSize(int size) {
+        int numberOfSites = gridSize * gridSize;
+        if (size < 1 || size > numberOfSites) {
+            throw new IllegalArgumentException(
+                    "size should be between 1 and " + numberOfSites + ": " + size);
+        }
+        if (clusterSizeCount != null) {
+            return clusterSizeCount[size];
+        }
+        int count = 0;
+        for (int site = 0; site < numberOfSites; site++) {
+            if (unionFind.isOpen(site) && unionFind.isRoot(site)
+                    && unionFind.componentSize(site) == size) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the cluster size histogram: element s is the number of clusters of open sites with
+     * s sites, element 0 is always 0. It is a copy of the tracked histogram, or it is counted from
+     * the roots of the union-find, both in O(n^2).
+     *
+     * @return the histogram, n*n+1 elements
+     */
+    public int[] clusterSizeHistogram() {
+        if (clusterSizeCount != null) {
+            return clusterSizeCount.clone();
+        }
+        int numberOfSites = gridSize * gridSize;
+        int[] histogram = new int[numberOfSites + 1];
+        for (int site = 0; site < numberOfSites; site++) {
+            if (unionFind.isOpen(site) && unionFind.isRoot(site)) {
+                histogram[unionFind.componentSize(site)]++;
+            }
+        }
+        return histogram;
+    }
 }
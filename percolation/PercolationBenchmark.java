@@ -0,0 +1,399 @@
+import edu.princeton.cs.algs4.StdOut;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Repeatable measurements of {@link Percolation} and {@link PercolationStats}, for grid sizes
+ * 64 through 8192:
+ * <ul>
+ * <li><code>open</code>: average time of {@link Percolation#open(int, int)} while all the sites
+ * of an empty grid are opened in random order</li>
+ * <li><code>isFull</code>: average time of {@link Percolation#isFull(int, int)} on random sites of
+ * a percolated grid</li>
+ * <li><code>stats</code>: average time of one {@link PercolationStats} trial for every {@link
+ * PercolationStats.SiteOrder}</li>
+ * </ul>
+ * Every benchmark runs {@link #WARMUP_ITERATIONS} unmeasured and {@link #MEASUREMENT_ITERATIONS}
+ * measured iterations, the set up of an iteration (a new grid) is not timed. The state of a
+ * benchmark is created just before its first iteration and dropped after its last one, so only
+ * one benchmark holds grids at a time. The bytes allocated per operation are measured with the
+ * allocation counters of the JVM threads. The results are written as JSON in the layout of the
+ * JMH JSON result format, so the runs of different versions can be compared with the usual JMH
+ * tools.
+ * <p>
+ * Usage: <code>PercolationBenchmark [resultFile [n ...]]</code>, the default result file is
+ * <code>percolation-benchmark.json</code>.
+ * <p>
+ * A running trial holds a {@link Percolation} (9 bytes per site) and an order of the sites
+ * (4 bytes per site), and the <code>stats</code> benchmark runs one trial per worker of the common
+ * pool at the same time, so the heap needed is about 13 * n^2 * max(2, parallelism) bytes:
+ * 3.5 GB for the 8192 grid with a parallelism of 4, 27 GB with 31. The needed heap of every grid
+ * size is printed before it is measured, with a warning if it is above the maximum heap; lower
+ * the parallelism with <code>-Djava.util.concurrent.ForkJoinPool.common.parallelism</code> or
+ * raise <code>-Xmx</code>.
+ */
+public class PercolationBenchmark {
+
+    private static final int[] DEFAULT_GRID_SIZES = {64, 128, 256, 512, 1024, 2048, 4096, 8192};
+    private static final String DEFAULT_RESULT_FILE = "percolation-benchmark.json";
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final int IS_FULL_QUERIES = 1 << 20;
+    private static final long SEED = 20170219L;
+
+    /**
+     * Heap bytes per site of a running trial: parent, size and flags of the {@link Percolation}
+     * and an int of the site order
+     */
+    private static final int BYTES_PER_TRIAL_SITE = 13;
+
+    /**
+     * z of the 99.9% confidence interval of the score, like the score error of JMH
+     */
+    private static final double CONST_3_29 = 3.29;
+
+    /**
+     * Keeps the results of the measured code alive, so it can not be eliminated
+     */
+    private static volatile long sink;
+
+    /**
+     * One benchmark with fixed parameters
+     */
+    private abstract static class Benchmark {
+
+        final String name;
+        final int gridSize;
+        final String siteOrder;
+
+        Benchmark(String name, int gridSize, String siteOrder) {
+            this.name = name;
+            this.gridSize = gridSize;
+            this.siteOrder = siteOrder;
+        }
+
+        /**
+         * Creates the state of the benchmark before its first iteration, not timed
+         */
+        void prepare() {
+        }
+
+        /**
+         * Prepares the next iteration, not timed
+         */
+        void setUp() {
+        }
+
+        /**
+         * Drops the state of the benchmark after its last iteration
+         */
+        void release() {
+        }
+
+        /**
+         * Runs the timed part of an iteration
+         *
+         * @return the number of operations done
+         */
+        abstract long run();
+
+        /**
+         * Returns the unit of the score
+         *
+         * @return the unit of the score
+         */
+        String unit() {
+            return "ns/op";
+        }
+
+        /**
+         * Returns the number of nanoseconds in the unit of the score
+         *
+         * @return the nanoseconds in the unit of the score
+         */
+        double nanosPerUnit() {
+            return 1;
+        }
+    }
+
+    /**
+     * Opens all the sites of an empty grid in a random order
+     */
+    private static final class OpenBenchmark extends Benchmark {
+
+        private int[] order;
+        private Percolation percolation;
+
+        OpenBenchmark(int gridSize) {
+            super("open", gridSize, null);
+        }
+
+        @Override
+        void prepare() {
+            order = shuffledSites(gridSize, new SplittableRandom(SEED));
+        }
+
+        @Override
+        void setUp() {
+            percolation = null;
+            percolation = new Percolation(gridSize);
+        }
+
+        @Override
+        long run() {
+            for (int site : order) {
+                percolation.open(site / gridSize + 1, site % gridSize + 1);
+            }
+            sink += percolation.numberOfOpenSites();
+            return order.length;
+        }
+
+        @Override
+        void release() {
+            order = null;
+            percolation = null;
+        }
+    }
+
+    /**
+     * Queries random sites of a percolated grid
+     */
+    private static final class IsFullBenchmark extends Benchmark {
+
+        private Percolation percolation;
+        private int[] rows;
+        private int[] cols;
+
+        IsFullBenchmark(int gridSize) {
+            super("isFull", gridSize, null);
+        }
+
+        @Override
+        void prepare() {
+            SplittableRandom random = new SplittableRandom(SEED);
+            this.percolation = new Percolation(gridSize);
+            int[] order = shuffledSites(gridSize, random);
+            for (int i = 0; !percolation.percolates(); i++) {
+                percolation.open(order[i] / gridSize + 1, order[i] % gridSize + 1);
+            }
+            rows = new int[IS_FULL_QUERIES];
+            cols = new int[IS_FULL_QUERIES];
+            for (int i = 0; i < IS_FULL_QUERIES; i++) {
+                rows[i] = random.nextInt(1, gridSize + 1);
+                cols[i] = random.nextInt(1, gridSize + 1);
+            }
+        }
+
+        @Override
+        long run() {
+            long full = 0;
+            for (int i = 0; i < IS_FULL_QUERIES; i++) {
+                if (percolation.isFull(rows[i], cols[i])) {
+                    full++;
+                }
+            }
+            sink += full;
+            return IS_FULL_QUERIES;
+        }
+
+        @Override
+        void release() {
+            percolation = null;
+            rows = null;
+            cols = null;
+        }
+    }
+
+    /**
+     * Runs PercolationStats trials end to end
+     */
+    private static final class StatsBenchmark extends Benchmark {
+
+        private final PercolationStats.SiteOrder order;
+        private final int trials = statsTrials();
+        private long seed = SEED;
+
+        StatsBenchmark(int gridSize, PercolationStats.SiteOrder order) {
+            super("stats", gridSize, order.name());
+            this.order = order;
+        }
+
+        @Override
+        long run() {
+            PercolationStats stats = new PercolationStats(gridSize, trials, seed++, order);
+            sink += Double.doubleToLongBits(stats.mean());
+            return trials;
+        }
+
+        @Override
+        String unit() {
+            return "ms/op";
+        }
+
+        @Override
+        double nanosPerUnit() {
+            return 1e6;
+        }
+    }
+
+    /**
+     * Returns the number of trials of a stats iteration, one per worker of the common pool
+     *
+     * @return the number of trials run at the same time
+     */
+    private static int statsTrials() {
+        return Math.max(2, ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Returns the heap the benchmarks of the grid size need, the stats benchmark holds the most
+     *
+     * @param gridSize the grid size
+     * @return the needed heap in bytes
+     */
+    private static long neededHeapBytes(int gridSize) {
+        return (long) BYTES_PER_TRIAL_SITE * gridSize * gridSize * statsTrials();
+    }
+
+    private static int[] shuffledSites(int gridSize, SplittableRandom random) {
+        int[] sites = new int[gridSize * gridSize];
+        for (int i = 0; i < sites.length; i++) {
+            int j = random.nextInt(i + 1);
+            sites[i] = sites[j];
+            sites[j] = i;
+        }
+        return sites;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the live threads of the JVM, -1 if the JVM does not
+     * count them
+     *
+     * @return the allocated bytes
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads)
+                .getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Runs the iterations of the benchmark and appends its JSON result
+     *
+     * @param benchmark the benchmark
+     * @param json      the JSON array of the results
+     */
+    private static void measure(Benchmark benchmark, StringBuilder json) {
+        RunningStatistics time = new RunningStatistics();
+        RunningStatistics allocation = new RunningStatistics();
+        double[] scores = new double[MEASUREMENT_ITERATIONS];
+        benchmark.prepare();
+        try {
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                benchmark.setUp();
+                benchmark.run();
+            }
+            for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+                benchmark.setUp();
+                long allocatedBefore = allocatedBytes();
+                long start = System.nanoTime();
+                long operations = benchmark.run();
+                long elapsed = System.nanoTime() - start;
+                long allocated = allocatedBytes() - allocatedBefore;
+                scores[i] = elapsed / benchmark.nanosPerUnit() / operations;
+                time.add(scores[i]);
+                allocation.add((double) allocated / operations);
+            }
+        }
+        finally {
+            benchmark.release();
+        }
+
+        String params = "\"n\" : \"" + benchmark.gridSize + "\"";
+        if (benchmark.siteOrder != null) {
+            params += ", \"siteOrder\" : \"" + benchmark.siteOrder + "\"";
+        }
+        StdOut.printf("%-8s %-40s %14.3f +- %10.3f %s %14.1f B/op%n", benchmark.name, params,
+                      time.mean(), time.halfWidth(CONST_3_29), benchmark.unit(),
+                      allocation.mean());
+
+        StringBuilder rawData = new StringBuilder();
+        for (double score : scores) {
+            rawData.append(rawData.length() == 0 ? "" : ", ").append(score);
+        }
+        json.append(json.length() == 1 ? "\n" : ",\n")
+            .append("  {\n")
+            .append("    \"benchmark\" : \"PercolationBenchmark.").append(benchmark.name)
+            .append("\",\n")
+            .append("    \"mode\" : \"avgt\",\n")
+            .append("    \"warmupIterations\" : ").append(WARMUP_ITERATIONS).append(",\n")
+            .append("    \"measurementIterations\" : ").append(MEASUREMENT_ITERATIONS)
+            .append(",\n")
+            .append("    \"params\" : { ").append(params).append(" },\n")
+            .append("    \"primaryMetric\" : {\n")
+            .append("      \"score\" : ").append(time.mean()).append(",\n")
+            .append("      \"scoreError\" : ").append(time.halfWidth(CONST_3_29)).append(",\n")
+            .append("      \"scoreUnit\" : \"").append(benchmark.unit()).append("\",\n")
+            .append("      \"rawData\" : [ [ ").append(rawData).append(" ] ]\n")
+            .append("    },\n")
+            .append("    \"secondaryMetrics\" : {\n")
+            .append("      \"gc.alloc.rate.norm\" : {\n")
+            .append("        \"score\" : ").append(allocation.mean()).append(",\n")
+            .append("        \"scoreError\" : ").append(allocation.halfWidth(CONST_3_29))
+            .append(",\n")
+            .append("        \"scoreUnit\" : \"B/op\"\n")
+            .append("      }\n")
+            .append("    }\n")
+            .append("  }");
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path resultFile = Paths.get(args.length > 0 ? args[0] : DEFAULT_RESULT_FILE);
+        int[] gridSizes = DEFAULT_GRID_SIZES;
+        if (args.length > 1) {
+            gridSizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                gridSizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        StringBuilder json = new StringBuilder("[");
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        for (int gridSize : gridSizes) {
+            long neededHeap = neededHeapBytes(gridSize);
+            StdOut.printf("n = %d needs about %d MB of heap%s%n", gridSize, neededHeap >> 20,
+                          neededHeap > maxHeap
+                          ? ", warning: the maximum heap is " + (maxHeap >> 20) + " MB" : "");
+            List<Benchmark> benchmarks = new ArrayList<>();
+            benchmarks.add(new OpenBenchmark(gridSize));
+            benchmarks.add(new IsFullBenchmark(gridSize));
+            for (PercolationStats.SiteOrder order : PercolationStats.SiteOrder.values()) {
+                benchmarks.add(new StatsBenchmark(gridSize, order));
+            }
+            for (Benchmark benchmark : benchmarks) {
+                measure(benchmark, json);
+            }
+        }
+        json.append("\n]\n");
+        Files.write(resultFile, json.toString().getBytes(StandardCharsets.UTF_8));
+        StdOut.println("results written to " + resultFile);
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memory-mapped checkpoint file of the trial results of a {@link PercolationStats} run. The file
+ * has a header with the parameters of the run and one write-once slot per trial:
+ * <pre>
+ *  0: long   magic
+ *  8: int    grid size
+ * 12: int    site order ordinal
+ * 16: long   seed
+ * 24: long   number of slots
+ * 32: double result of trial 0
+ * 40: long   done marker of trial 0
+ * 48: double result of trial 1 ...
+ * </pre>
+ * The done marker of a slot is {@link #DONE} XOR the bits of its result, so a slot that was never
+ * written, or whose result and marker do not match, means the trial has to be run; every result,
+ * 0 included, can be recorded. A 16-byte slot never crosses a page of the mapping. The random
+ * stream of trial i is the i-th split of the seed, so the seed and the slot index are all the RNG
+ * state that is needed to resume. A slot is written only once, when its trial is finished, and the
+ * mapping is forced to disk every {@link #FORCE_INTERVAL} results and on close. The header is
+ * forced with the magic last before any slot is written, so a file with a zero magic was left by
+ * a crash during creation and is initialized again.
+ */
+final class PercolationCheckpoint implements Closeable {
+
+    private static final long MAGIC = 0x5045524353544132L;
+    private static final long DONE = 0x444F4E4554524C44L;
+    private static final int HEADER_BYTES = 32;
+    private static final int SLOT_BYTES = Double.BYTES + Long.BYTES;
+    private static final int FORCE_INTERVAL = 1024;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final AtomicInteger recordedResults = new AtomicInteger();
+
+    /**
+     * Opens the checkpoint file, or creates it if it does not exist
+     *
+     * @param file      the checkpoint file
+     * @param gridSize  grid size of the run
+     * @param siteOrder site order of the run
+     * @param seed      seed of the run
+     * @param slots     the maximum number of trials of the run
+     * @throws IOException              if the file can not be mapped
+     * @throws IllegalArgumentException if the file belongs to a run with other parameters or the
+     *                                  slots do not fit into one mapping
+     */
+    PercolationCheckpoint(Path file, int gridSize, PercolationStats.SiteOrder siteOrder,
+                          long seed, int slots) throws IOException {
+        long bytes = HEADER_BYTES + (long) slots * SLOT_BYTES;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many trials for one checkpoint: " + slots);
+        }
+        this.slots = slots;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size != 0 && size != bytes) {
+            channel.close();
+            throw new IllegalArgumentException("checkpoint " + file + " has a different size");
+        }
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+
+        // the magic is written last, a file grown by the mapping whose header was never forced
+        // has a zero magic and no recorded slots, so it is initialized like a new one
+        if (size == 0 || buffer.getLong(0) == 0) {
+            buffer.putInt(8, gridSize);
+            buffer.putInt(12, siteOrder.ordinal());
+            buffer.putLong(16, seed);
+            buffer.putLong(24, slots);
+            buffer.putLong(0, MAGIC);
+            buffer.force();
+        }
+        else if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != gridSize
+                || buffer.getInt(12) != siteOrder.ordinal() || buffer.getLong(16) != seed
+                || buffer.getLong(24) != slots) {
+            channel.close();
+            throw new IllegalArgumentException(
+                    "checkpoint " + file + " belongs to a run with other parameters");
+        }
+    }
+
+    /**
+     * Returns true if the result of the trial is recorded
+     *
+     * @param trial the trial index
+     * @return true if the slot of the trial has a result with a matching done marker
+     */
+    boolean isDone(int trial) {
+        int offset = slotOffset(trial);
+        return buffer.getLong(offset + Double.BYTES)
+                == (DONE ^ Double.doubleToRawLongBits(buffer.getDouble(offset)));
+    }
+
+    /**
+     * Returns the recorded result of the trial, valid only if {@link #isDone(int)}
+     *
+     * @param trial the trial index
+     * @return the fraction of opened sites when percolated
+     */
+    double result(int trial) {
+        return buffer.getDouble(slotOffset(trial));
+    }
+
+    /**
+     * Records the result of a finished trial. Different trials can be recorded from different
+     * threads at the same time.
+     *
+     * @param trial    the trial index
+     * @param fraction the fraction of opened sites when percolated
+     */
+    void record(int trial, double fraction) {
+        int offset = slotOffset(trial);
+        buffer.putDouble(offset, fraction);
+        buffer.putLong(offset + Double.BYTES, DONE ^ Double.doubleToRawLongBits(fraction));
+        if (recordedResults.incrementAndGet() % FORCE_INTERVAL == 0) {
+            force();
+        }
+    }
+
+    private int slotOffset(int trial) {
+        if (trial < 0 || trial >= slots) {
+            throw new IllegalArgumentException("trial should be between 0 and " + (slots - 1));
+        }
+        return HEADER_BYTES + trial * SLOT_BYTES;
+    }
+
+    private synchronized void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
@@ -0,0 +1,191 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in counters of the hot paths of {@link Percolation} and its union-find, enabled with
+ * <code>-Dpercolation.metrics=true</code>. The switch is a static final field, so when it is off
+ * the JIT folds the guarded code away and the counters cost nothing. The counters are global and
+ * can be updated from any number of threads, {@link #snapshot()} reads them.
+ * <p>
+ * Only the union-finds created by {@link Percolation} are counted; the union-finds of
+ * {@link StripedPercolation} and {@link LatticePercolation}, and the full site scan of
+ * {@link Percolation#fullSites()}, do not touch the counters.
+ */
+public final class PercolationMetrics {
+
+    /**
+     * True if the counters are collected
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("percolation.metrics");
+
+    /**
+     * Number of bins of the fill level histogram, bin i counts fill levels in [i/100, (i+1)/100)
+     */
+    public static final int FILL_LEVEL_BINS = 100;
+
+    private static final LongAdder FIND_CALLS = new LongAdder();
+    private static final LongAdder PATH_LENGTH = new LongAdder();
+    private static final LongAdder UNIONS = new LongAdder();
+    private static final LongAdder ROOT_FLAG_UPDATES = new LongAdder();
+    private static final AtomicLongArray FILL_LEVEL_HISTOGRAM =
+            new AtomicLongArray(FILL_LEVEL_BINS);
+
+    private PercolationMetrics() {
+    }
+
+    /**
+     * Counts a find call
+     *
+     * @param pathLength the number of parent links followed
+     */
+    static void find(int pathLength) {
+        FIND_CALLS.increment();
+        PATH_LENGTH.add(pathLength);
+    }
+
+    /**
+     * Counts a union that merged two different components
+     */
+    static void union() {
+        UNIONS.increment();
+    }
+
+    /**
+     * Counts a change of the TOP/BOTTOM flags of a root
+     */
+    static void rootFlagUpdate() {
+        ROOT_FLAG_UPDATES.increment();
+    }
+
+    /**
+     * Counts a grid that percolated
+     *
+     * @param fillLevel the fraction of open sites when the grid percolated
+     */
+    static void percolated(double fillLevel) {
+        FILL_LEVEL_HISTOGRAM.incrementAndGet(
+                Math.min(FILL_LEVEL_BINS - 1, (int) (fillLevel * FILL_LEVEL_BINS)));
+    }
+
+    /**
+     * Returns the current values of the counters. The counters are read one by one, so a snapshot
+     * taken while other threads are counting is not atomic.
+     *
+     * @return the snapshot of the counters
+     */
+    public static Snapshot snapshot() {
+        long[] fillLevelHistogram = new long[FILL_LEVEL_BINS];
+        for (int i = 0; i < FILL_LEVEL_BINS; i++) {
+            fillLevelHistogram[i] = FILL_LEVEL_HISTOGRAM.get(i);
+        }
+        return new Snapshot(FIND_CALLS.sum(), PATH_LENGTH.sum(), UNIONS.sum(),
+                            ROOT_FLAG_UPDATES.sum(), fillLevelHistogram);
+    }
+
+    /**
+     * Sets all the counters to 0
+     */
+    public static void reset() {
+        FIND_CALLS.reset();
+        PATH_LENGTH.reset();
+        UNIONS.reset();
+        ROOT_FLAG_UPDATES.reset();
+        for (int i = 0; i < FILL_LEVEL_BINS; i++) {
+            FILL_LEVEL_HISTOGRAM.set(i, 0);
+        }
+    }
+
+    /**
+     * The values of the counters at one point in time
+     */
+    public static final class Snapshot {
+
+        private final long findCalls;
+        private final long pathLength;
+        private final long unions;
+        private final long rootFlagUpdates;
+        private final long[] fillLevelHistogram;
+
+        private Snapshot(long findCalls, long pathLength, long unions, long rootFlagUpdates,
+                         long[] fillLevelHistogram) {
+            this.findCalls = findCalls;
+            this.pathLength = pathLength;
+            this.unions = unions;
+            this.rootFlagUpdates = rootFlagUpdates;
+            this.fillLevelHistogram = fillLevelHistogram;
+        }
+
+        /**
+         * Returns the number of find calls
+         *
+         * @return the number of find calls
+         */
+        public long findCalls() {
+            return findCalls;
+        }
+
+        /**
+         * Returns the total number of parent links followed by the find calls
+         *
+         * @return the total path length
+         */
+        public long pathLength() {
+            return pathLength;
+        }
+
+        /**
+         * Returns the average number of parent links followed by a find call
+         *
+         * @return the mean path length, NaN if there were no find calls
+         */
+        public double meanPathLength() {
+            return findCalls == 0 ? Double.NaN : (double) pathLength / findCalls;
+        }
+
+        /**
+         * Returns the number of unions that merged two different components
+         *
+         * @return the number of unions
+         */
+        public long unions() {
+            return unions;
+        }
+
+        /**
+         * Returns the number of changes of the TOP/BOTTOM flags of a root
+         *
+         * @return the number of root flag updates
+         */
+        public long rootFlagUpdates() {
+            return rootFlagUpdates;
+        }
+
+        /**
+         * Returns the number of percolated grids by fill level, bin i counts the grids that
+         * percolated with a fraction of open sites in [i/100, (i+1)/100)
+         *
+         * @return a copy of the histogram
+         */
+        public long[] fillLevelHistogram() {
+            return fillLevelHistogram.clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("find calls              = ").append(findCalls).append('\n');
+            sb.append("mean path length        = ").append(meanPathLength()).append('\n');
+            sb.append("unions                  = ").append(unions).append('\n');
+            sb.append("root flag updates       = ").append(rootFlagUpdates).append('\n');
+            sb.append("fill level at percolation:");
+            for (int i = 0; i < FILL_LEVEL_BINS; i++) {
+                if (fillLevelHistogram[i] != 0) {
+                    sb.append(String.format("\n  %.2f-%.2f %d", (double) i / FILL_LEVEL_BINS,
+                                            (double) (i + 1) / FILL_LEVEL_BINS,
+                                            fillLevelHistogram[i]));
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
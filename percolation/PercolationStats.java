@@ -1,20 +1,57 @@
 import edu.princeton.cs.algs4.StdOut;
 import edu.princeton.cs.algs4.StdRandom;
-import edu.princeton.cs.algs4.StdStats;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
 
 public class PercolationStats {
 
+    /**
+     * The order in which a trial opens the blocked sites
+     */
+    public enum SiteOrder {
+        /**
+         * Draws random (row, col) pairs until a blocked one is found, near the threshold most
+         * draws are rejected
+         */
+        REJECTION_SAMPLING,
+
+        /**
+         * Opens the sites in the order of a Fisher–Yates shuffle of the site indices, exactly one
+         * draw per opened site
+         */
+        SHUFFLED
+    }
+
     private static final double CONST_1_96 = 1.96;
-    private final double trials;
+
+    /**
+     * The adaptive mode checks the confidence interval only after this many trials
+     */
+    private static final int MIN_ADAPTIVE_TRIALS = 10;
+
+    /**
+     * The fixed number of trials runs in batches of this many trials per thread, so the memory of
+     * the random streams and the results does not grow with the number of trials
+     */
+    private static final int BATCH_TRIALS_PER_THREAD = 64;
+
     private final int gridSize;
     private final int numberOfAllSites;
+    private final SiteOrder siteOrder;
 
-    private double cachedmean = 0;
-    private double cachedStddev = 0;
-    private double cachedConfidenceLow = 0;
-    private double cachedConfidenceHigh = 0;
-
-    private double[] openedSitesWhenPercolatedList;
+    /**
+     * Running mean and standard deviation of the fraction of opened sites when percolated
+     */
+    private final RunningStatistics statistics = new RunningStatistics();
 
     /**
      * perform trials independent experiments on an n-by-n grid The constructor should throw a
@@ -24,49 +61,195 @@ public class PercolationStats {
      * @param trials number of trials
      */
     public PercolationStats(int n, int trials) {
-        if (n < 1 || trials < 1) {
+        this(n, trials, StdRandom.uniform(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Perform trials independent experiments on an n-by-n grid in parallel. Every trial gets its
+     * own {@link SplittableRandom} split from the one created with <code>seed</code>, so the
+     * results depend only on the seed and not on the number of threads.
+     *
+     * @param n      grid size (both rows and columns)
+     * @param trials number of trials
+     * @param seed   the seed of the random streams of the trials
+     * @throws IllegalArgumentException if n < 1 or trials < 1
+     */
+    public PercolationStats(int n, int trials, long seed) {
+        this(n, trials, seed, SiteOrder.REJECTION_SAMPLING);
+    }
+
+    /**
+     * Perform trials independent experiments on an n-by-n grid in parallel, opening the sites in
+     * the given {@link SiteOrder}.
+     *
+     * @param n         grid size (both rows and columns)
+     * @param trials    number of trials
+     * @param seed      the seed of the random streams of the trials
+     * @param siteOrder the order in which the sites are opened
+     * @throws IllegalArgumentException if n < 1 or trials < 1 or siteOrder is null
+     */
+    public PercolationStats(int n, int trials, long seed, SiteOrder siteOrder) {
+        this(n, trials, seed, siteOrder, null);
+    }
+
+    /**
+     * Perform trials independent experiments on an n-by-n grid in parallel, recording the result
+     * of every finished trial in a memory-mapped checkpoint file. A run restarted with the same
+     * parameters and checkpoint file reuses the recorded results and runs only the missing trials,
+     * with the same random streams as the first run.
+     *
+     * @param n          grid size (both rows and columns)
+     * @param trials     number of trials
+     * @param seed       the seed of the random streams of the trials
+     * @param siteOrder  the order in which the sites are opened
+     * @param checkpoint the checkpoint file, null for no checkpoint
+     * @throws IllegalArgumentException if n < 1 or trials < 1 or siteOrder is null or the
+     *                                  checkpoint belongs to a run with other parameters
+     * @throws UncheckedIOException     if the checkpoint file can not be used
+     */
+    public PercolationStats(int n, int trials, long seed, SiteOrder siteOrder, Path checkpoint) {
+        this(n, siteOrder);
+        if (trials < 1) {
             throw new IllegalArgumentException("n and trials should be greater than 0");
         }
+        try (PercolationCheckpoint results = openCheckpoint(checkpoint, seed, trials)) {
+            performExperiments(new SplittableRandom(seed), 0, trials, results, statistics::add);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Perform experiments on an n-by-n grid until the half width of the 95% confidence interval
+     * falls below <code>halfWidth</code>, but at most <code>maxTrials</code> of them. Only the
+     * running moments are kept. The trials run in parallel batches, their results are added in
+     * trial order and the ones after the stopping trial are dropped, so the number of trials and
+     * the results depend only on the seed and not on the number of threads.
+     *
+     * @param n         grid size (both rows and columns)
+     * @param halfWidth the required half width of the 95% confidence interval
+     * @param maxTrials the maximum number of trials
+     * @param seed      the seed of the random streams of the trials
+     * @param siteOrder the order in which the sites are opened
+     * @throws IllegalArgumentException if n < 1 or maxTrials < 1 or halfWidth is not positive or
+     *                                  siteOrder is null
+     */
+    public PercolationStats(int n, double halfWidth, int maxTrials, long seed,
+                            SiteOrder siteOrder) {
+        this(n, halfWidth, maxTrials, seed, siteOrder, null);
+    }
+
+    /**
+     * Perform experiments until the confidence interval is narrow enough like {@link
+     * #PercolationStats(int, double, int, long, SiteOrder)}, recording the result of every
+     * finished trial in a memory-mapped checkpoint file with <code>maxTrials</code> slots.
+     *
+     * @param n          grid size (both rows and columns)
+     * @param halfWidth  the required half width of the 95% confidence interval
+     * @param maxTrials  the maximum number of trials
+     * @param seed       the seed of the random streams of the trials
+     * @param siteOrder  the order in which the sites are opened
+     * @param checkpoint the checkpoint file, null for no checkpoint
+     * @throws IllegalArgumentException if n < 1 or maxTrials < 1 or halfWidth is not positive or
+     *                                  siteOrder is null or the checkpoint belongs to a run with
+     *                                  other parameters
+     * @throws UncheckedIOException     if the checkpoint file can not be used
+     */
+    public PercolationStats(int n, double halfWidth, int maxTrials, long seed,
+                            SiteOrder siteOrder, Path checkpoint) {
+        this(n, siteOrder);
+        if (maxTrials < 1) {
+            throw new IllegalArgumentException("maxTrials should be greater than 0");
+        }
+        if (!(halfWidth > 0)) {
+            throw new IllegalArgumentException("halfWidth should be greater than 0");
+        }
+        try (PercolationCheckpoint results = openCheckpoint(checkpoint, seed, maxTrials)) {
+            SplittableRandom seedRandom = new SplittableRandom(seed);
+            int batchSize = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+            while (statistics.count() < maxTrials) {
+                int firstTrial = (int) statistics.count();
+                int batch = Math.min(batchSize, maxTrials - firstTrial);
+                for (double fraction : performBatch(seedRandom, firstTrial, batch, results)) {
+                    statistics.add(fraction);
+                    if (statistics.count() >= MIN_ADAPTIVE_TRIALS
+                            && statistics.halfWidth(CONST_1_96) < halfWidth) {
+                        return;
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Checks the common arguments of the constructors
+     *
+     * @param n         grid size (both rows and columns)
+     * @param siteOrder the order in which the sites are opened
+     */
+    private PercolationStats(int n, SiteOrder siteOrder) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n and trials should be greater than 0");
+        }
+        if (siteOrder == null) {
+            throw new IllegalArgumentException("siteOrder should not be null");
+        }
         this.gridSize = n;
-        this.trials = trials;
-        openedSitesWhenPercolatedList = new double[trials];
+        this.siteOrder = siteOrder;
         this.numberOfAllSites = n * n;
-        performExperiments();
     }
 
-    public double mean() {
-        if (cachedmean == 0) {
-            cachedmean = StdStats.mean(openedSitesWhenPercolatedList);
+    /**
+     * Opens the checkpoint file of this run
+     *
+     * @param checkpoint the checkpoint file, null for no checkpoint
+     * @param seed       the seed of the run
+     * @param slots      the maximum number of trials of the run
+     * @return the opened checkpoint, null if checkpoint is null
+     * @throws IOException if the file can not be mapped
+     */
+    private PercolationCheckpoint openCheckpoint(Path checkpoint, long seed, int slots)
+            throws IOException {
+        if (checkpoint == null) {
+            return null;
         }
-        return cachedmean;
+        return new PercolationCheckpoint(checkpoint, gridSize, siteOrder, seed, slots);
+    }
+
+    // sample mean of percolation threshold
+    public double mean() {
+        return statistics.mean();
     }
 
 
     // sample standard deviation of percolation threshold
     public double stddev() {
-        if (cachedStddev == 0) {
-            cachedStddev = StdStats.stddev(openedSitesWhenPercolatedList);
-        }
-        return cachedStddev;
+        return statistics.stddev();
     }
 
     // low  endpoint of 95% confidence interval
     public double confidenceLo() {
-        if (cachedConfidenceLow == 0) {
-            cachedConfidenceLow = mean() - ((CONST_1_96 * stddev()) / Math.sqrt(this.trials));
-        }
-        return cachedConfidenceLow;
+        return mean() - statistics.halfWidth(CONST_1_96);
     }
 
     // high endpoint of 95% confidence interval
     public double confidenceHi() {
-        if (cachedConfidenceHigh == 0) {
-            cachedConfidenceHigh = mean() + ((CONST_1_96 * stddev()) / Math.sqrt(this.trials));
-        }
-        return cachedConfidenceHigh;
+        return mean() + statistics.halfWidth(CONST_1_96);
+    }
+
+    // number of trials performed
+    public int trials() {
+        return (int) statistics.count();
     }
 
-    private int simulate() {
+    private int simulate(SplittableRandom random) {
+        if (siteOrder == SiteOrder.SHUFFLED) {
+            return simulateShuffled(random);
+        }
         Percolation percolation = new Percolation(gridSize);
         int row;
         int col;
@@ -74,8 +257,8 @@ public class PercolationStats {
 
             // find a pair which is blocked
             do {
-                row = StdRandom.uniform(1, this.gridSize + 1);
-                col = StdRandom.uniform(1, this.gridSize + 1);
+                row = random.nextInt(1, this.gridSize + 1);
+                col = random.nextInt(1, this.gridSize + 1);
             } while (percolation.isOpen(row, col));
 
             percolation.open(row, col);
@@ -83,23 +266,248 @@ public class PercolationStats {
         return percolation.numberOfOpenSites();
     }
 
-    private void performExperiments() {
-        for (int i = 0; i < this.trials; i++) {
+    /**
+     * Opens the sites in a random permutation order until the system percolates. The
+     * Fisher–Yates shuffle is done step by step, so only the part of the permutation that is
+     * actually used gets drawn.
+     *
+     * @param random the random stream of the trial
+     * @return the number of open sites when the system percolated
+     */
+    private int simulateShuffled(SplittableRandom random) {
+        Percolation percolation = new Percolation(gridSize);
+        int[] sites = new int[numberOfAllSites];
+        for (int i = 0; i < sites.length; i++) {
+            sites[i] = i;
+        }
+        for (int i = 0; !percolation.percolates(); i++) {
+            int j = random.nextInt(i, sites.length);
+            int site = sites[j];
+            sites[j] = sites[i];
+            sites[i] = site;
+
+            percolation.openSite(site);
+        }
+        return percolation.numberOfOpenSites();
+    }
+
+    /**
+     * Runs the next <code>count</code> trials in parallel batches of
+     * {@link #BATCH_TRIALS_PER_THREAD} trials per thread of the common fork-join pool and passes
+     * their results to <code>results</code> in trial order. Only one batch of random streams and
+     * results is held at a time.
+     *
+     * @param seedRandom the random the streams of the trials are split from
+     * @param firstTrial the index of the first trial
+     * @param count      the number of trials
+     * @param checkpoint the checkpoint of the run, null for no checkpoint
+     * @param results    receives the fractions of opened sites when percolated in trial order
+     */
+    private void performExperiments(SplittableRandom seedRandom, int firstTrial, int count,
+                                    PercolationCheckpoint checkpoint, DoubleConsumer results) {
+        int batchSize = Math.max(1, ForkJoinPool.getCommonPoolParallelism())
+                * BATCH_TRIALS_PER_THREAD;
+        for (int done = 0; done < count; ) {
+            int batch = Math.min(batchSize, count - done);
+            for (double fraction : performBatch(seedRandom, firstTrial + done, batch, checkpoint)) {
+                results.accept(fraction);
+            }
+            done += batch;
+        }
+    }
 
-            int openedSites = simulate();
+    /**
+     * Runs the next <code>count</code> trials on the common fork-join pool. The random streams
+     * are split from <code>seedRandom</code> one after the other in trial order before the
+     * parallel part, this makes trial i use the same stream whatever thread runs it. The trials
+     * already recorded in the checkpoint are not run again, their streams are still split so the
+     * following trials get the same streams.
+     *
+     * @param seedRandom the random the streams of the trials are split from
+     * @param firstTrial the index of the first trial
+     * @param count      the number of trials
+     * @param checkpoint the checkpoint of the run, null for no checkpoint
+     * @return the fractions of opened sites when percolated in trial order
+     */
+    private double[] performBatch(SplittableRandom seedRandom, int firstTrial, int count,
+                                  PercolationCheckpoint checkpoint) {
+        SplittableRandom[] trialRandoms = new SplittableRandom[count];
+        for (int i = 0; i < trialRandoms.length; i++) {
+            trialRandoms[i] = seedRandom.split();
+        }
+
+        double[] openedSitesWhenPercolatedList = new double[count];
+        IntStream.range(0, trialRandoms.length).parallel().forEach(i -> {
+            if (checkpoint != null && checkpoint.isDone(firstTrial + i)) {
+                openedSitesWhenPercolatedList[i] = checkpoint.result(firstTrial + i);
+                return;
+            }
+            int openedSites = simulate(trialRandoms[i]);
             double fractionOfOpenedSites = (double) openedSites / (double) numberOfAllSites;
             openedSitesWhenPercolatedList[i] = fractionOfOpenedSites;
+            if (checkpoint != null) {
+                checkpoint.record(firstTrial + i, fractionOfOpenedSites);
+            }
+        });
+        return openedSitesWhenPercolatedList;
+    }
+
+    /**
+     * Runs trials <code>firstTrial</code> ... <code>firstTrial + count - 1</code> of the run with
+     * the given seed. The streams of the earlier trials are split and dropped, so every trial gets
+     * the same stream as in a single-process run of the seed.
+     *
+     * @param seed        the seed of the run
+     * @param totalTrials the number of trials of the whole run
+     * @param firstTrial  the index of the first trial
+     * @param count       the number of trials
+     * @param keepSamples true to keep the result of every trial in the part
+     * @return the part with the statistics of the trials
+     */
+    private PercolationStatsPart performPart(long seed, int totalTrials, int firstTrial,
+                                             int count, boolean keepSamples) {
+        SplittableRandom seedRandom = new SplittableRandom(seed);
+        for (int i = 0; i < firstTrial; i++) {
+            seedRandom.split();
+        }
+        RunningStatistics partStatistics = new RunningStatistics();
+        double[] samples = keepSamples ? new double[count] : null;
+        performExperiments(seedRandom, firstTrial, count, null, fraction -> {
+            if (samples != null) {
+                samples[(int) partStatistics.count()] = fraction;
+            }
+            partStatistics.add(fraction);
+        });
+        return new PercolationStatsPart(gridSize, siteOrder, seed, totalTrials, firstTrial,
+                                        partStatistics, samples);
+    }
+
+    /**
+     * Combines the parts of a run. If every part has its samples they are added one by one in
+     * trial order, which gives exactly the statistics of a single-process run, otherwise the
+     * statistics of the parts are merged, which is equal up to rounding.
+     *
+     * @param parts the parts of the run
+     * @return the statistics of all the trials of the parts
+     * @throws IllegalArgumentException if the parts belong to different runs, or do not cover
+     *                                  the trials from 0 to the total trials of the run exactly
+     *                                  once without gaps
+     */
+    private static PercolationStats merge(PercolationStatsPart... parts) {
+        if (parts.length == 0) {
+            throw new IllegalArgumentException("no parts to merge");
         }
+        PercolationStatsPart[] sorted = parts.clone();
+        Arrays.sort(sorted, Comparator.comparingLong(part -> part.firstTrial));
+        boolean allSamples = true;
+        for (int i = 0; i < sorted.length; i++) {
+            if (!sorted[i].sameRun(sorted[0])) {
+                throw new IllegalArgumentException("the parts belong to different runs");
+            }
+            if (sorted[i].totalTrials != sorted[0].totalTrials) {
+                throw new IllegalArgumentException(
+                        "the parts disagree on the total trials: " + sorted[0].totalTrials
+                                + " and " + sorted[i].totalTrials);
+            }
+            long expectedFirstTrial = i == 0 ? 0 : sorted[i - 1].endTrial();
+            if (sorted[i].firstTrial < expectedFirstTrial) {
+                throw new IllegalArgumentException(
+                        "the parts have common trials from " + sorted[i].firstTrial);
+            }
+            if (sorted[i].firstTrial > expectedFirstTrial) {
+                throw new IllegalArgumentException(
+                        "trials " + expectedFirstTrial + " to " + (sorted[i].firstTrial - 1)
+                                + " are missing from the parts");
+            }
+            allSamples &= sorted[i].samples != null;
+        }
+        long endTrial = sorted[sorted.length - 1].endTrial();
+        if (endTrial != sorted[0].totalTrials) {
+            throw new IllegalArgumentException(
+                    "trials " + endTrial + " to " + (sorted[0].totalTrials - 1)
+                            + " are missing from the parts");
+        }
+
+        PercolationStats merged = new PercolationStats(sorted[0].gridSize, sorted[0].siteOrder);
+        for (PercolationStatsPart part : sorted) {
+            if (allSamples) {
+                for (double sample : part.samples) {
+                    merged.statistics.add(sample);
+                }
+            }
+            else {
+                merged.statistics.merge(part.statistics);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Worker of a multi-process run, the arguments are <code>n totalTrials seed firstTrial trials
+     * siteOrder partFile [samples]</code>. Every worker of the run gets the same total trials, the
+     * merge checks that the parts end at it.
+     *
+     * @param args the arguments after <code>worker</code>
+     * @throws IOException if the part file can not be written
+     */
+    private static void worker(String[] args) throws IOException {
+        PercolationStats percolationStats = new PercolationStats(Integer.parseInt(args[0]),
+                                                                 SiteOrder.valueOf(args[5]));
+        int totalTrials = Integer.parseInt(args[1]);
+        int firstTrial = Integer.parseInt(args[3]);
+        int trials = Integer.parseInt(args[4]);
+        if (firstTrial < 0 || trials < 1 || trials > totalTrials - firstTrial) {
+            throw new IllegalArgumentException(
+                    "firstTrial should be >= 0, trials > 0 and firstTrial + trials <= totalTrials");
+        }
+        boolean keepSamples = args.length > 7 && "samples".equals(args[7]);
+        percolationStats.performPart(Long.parseLong(args[2]), totalTrials, firstTrial, trials,
+                                     keepSamples)
+                        .write(Paths.get(args[6]));
     }
 
     // test client (described below)
-    public static void main(String[] args) {
-        int gridSize = Integer.parseInt(args[0]);
-        int experiments = Integer.parseInt(args[1]);
-        PercolationStats percolationStats = new PercolationStats(gridSize, experiments);
+    public static void main(String[] args) throws IOException {
+        PercolationStats percolationStats;
+        if ("worker".equals(args[0])) {
+            worker(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        else if ("merge".equals(args[0])) {
+            PercolationStatsPart[] parts = new PercolationStatsPart[args.length - 1];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = PercolationStatsPart.read(Paths.get(args[i + 1]));
+            }
+            percolationStats = merge(parts);
+        }
+        else {
+            int gridSize = Integer.parseInt(args[0]);
+            int experiments = Integer.parseInt(args[1]);
+            if (args.length > 4) {
+                percolationStats = new PercolationStats(gridSize, experiments,
+                                                        Long.parseLong(args[2]),
+                                                        SiteOrder.valueOf(args[3]),
+                                                        Paths.get(args[4]));
+            }
+            else if (args.length > 3) {
+                percolationStats = new PercolationStats(gridSize, experiments,
+                                                        Long.parseLong(args[2]),
+                                                        SiteOrder.valueOf(args[3]));
+            }
+            else if (args.length > 2) {
+                percolationStats = new PercolationStats(gridSize, experiments,
+                                                        Long.parseLong(args[2]));
+            }
+            else {
+                percolationStats = new PercolationStats(gridSize, experiments);
+            }
+        }
         StdOut.println("mean                    = " + percolationStats.mean());
         StdOut.println("stddev                  = " + percolationStats.stddev());
         StdOut.println("95% confidence interval = [" + percolationStats.confidenceLo() + ", "
                                + percolationStats.confidenceHi() + "]");
+        if (PercolationMetrics.ENABLED) {
+            StdOut.println(PercolationMetrics.snapshot());
+        }
     }
 }
@@ -0,0 +1,168 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The partial result of a {@link PercolationStats} worker: the statistics of a range of trials
+ * of a run, so several processes sharing a filesystem can run one experiment and merge their
+ * parts. The file is written with {@link DataOutputStream}:
+ * <pre>
+ *  0: long   magic
+ *  8: int    grid size
+ * 12: int    site order ordinal
+ * 16: long   seed
+ * 24: long   number of trials of the whole run
+ * 32: long   first trial
+ * 40: long   number of trials
+ * 48: double mean
+ * 56: double sum of squared differences from the mean
+ * 64: byte   1 if the samples follow, 0 otherwise
+ * 65: double sample of the first trial, sample of the next trial ...
+ * </pre>
+ * The mean and the sum of squared differences are kept instead of the sum and the sum of squares,
+ * they are just as mergeable and do not lose the digits of the small variance.
+ */
+final class PercolationStatsPart {
+
+    private static final long MAGIC = 0x5045524350525432L;
+
+    final int gridSize;
+    final PercolationStats.SiteOrder siteOrder;
+    final long seed;
+
+    /**
+     * The number of trials of the whole run, the parts of the run end at it
+     */
+    final long totalTrials;
+
+    final long firstTrial;
+    final RunningStatistics statistics;
+
+    /**
+     * The fractions of opened sites of the trials in trial order, null if not kept
+     */
+    final double[] samples;
+
+    /**
+     * Creates the part of trials <code>firstTrial</code>, <code>firstTrial + 1</code>, ...
+     *
+     * @param gridSize    grid size of the run
+     * @param siteOrder   site order of the run
+     * @param seed        seed of the run
+     * @param totalTrials number of trials of the whole run
+     * @param firstTrial  index of the first trial of the part
+     * @param statistics  statistics of the trials of the part
+     * @param samples     the samples in trial order, null to leave them out
+     */
+    PercolationStatsPart(int gridSize, PercolationStats.SiteOrder siteOrder, long seed,
+                         long totalTrials, long firstTrial, RunningStatistics statistics,
+                         double[] samples) {
+        this.gridSize = gridSize;
+        this.siteOrder = siteOrder;
+        this.seed = seed;
+        this.totalTrials = totalTrials;
+        this.firstTrial = firstTrial;
+        this.statistics = statistics;
+        this.samples = samples;
+    }
+
+    /**
+     * Returns the index after the last trial of the part
+     *
+     * @return first trial + number of trials
+     */
+    long endTrial() {
+        return firstTrial + statistics.count();
+    }
+
+    /**
+     * Returns true if the other part belongs to the same run
+     *
+     * @param other another part
+     * @return true if the grid size, the site order and the seed are the same
+     */
+    boolean sameRun(PercolationStatsPart other) {
+        return gridSize == other.gridSize && siteOrder == other.siteOrder && seed == other.seed;
+    }
+
+    /**
+     * Writes the part into a temporary file next to <code>file</code> and moves it into place,
+     * so a merge never sees a half written part.
+     *
+     * @param file the part file
+     * @throws IOException if the file can not be written
+     */
+    void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeLong(MAGIC);
+            out.writeInt(gridSize);
+            out.writeInt(siteOrder.ordinal());
+            out.writeLong(seed);
+            out.writeLong(totalTrials);
+            out.writeLong(firstTrial);
+            out.writeLong(statistics.count());
+            out.writeDouble(statistics.mean());
+            out.writeDouble(statistics.sumOfSquaredDifferences());
+            out.writeBoolean(samples != null);
+            if (samples != null) {
+                for (double sample : samples) {
+                    out.writeDouble(sample);
+                }
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a part file
+     *
+     * @param file the part file
+     * @return the part
+     * @throws IOException              if the file can not be read
+     * @throws IllegalArgumentException if the file is not a part file, or its site order or trial
+     *                                  range is invalid
+     */
+    static PercolationStatsPart read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readLong() != MAGIC) {
+                throw new IllegalArgumentException(file + " is not a percolation stats part");
+            }
+            int gridSize = in.readInt();
+            int siteOrdinal = in.readInt();
+            PercolationStats.SiteOrder[] siteOrders = PercolationStats.SiteOrder.values();
+            if (siteOrdinal < 0 || siteOrdinal >= siteOrders.length) {
+                throw new IllegalArgumentException(file + " has an invalid site order: "
+                                                           + siteOrdinal);
+            }
+            long seed = in.readLong();
+            long totalTrials = in.readLong();
+            long firstTrial = in.readLong();
+            long count = in.readLong();
+            if (firstTrial < 0 || count < 1 || count > totalTrials - firstTrial) {
+                throw new IllegalArgumentException(
+                        file + " has an invalid trial range: " + count + " trials from "
+                                + firstTrial + " of " + totalTrials);
+            }
+            RunningStatistics statistics =
+                    new RunningStatistics(count, in.readDouble(), in.readDouble());
+            double[] samples = null;
+            if (in.readBoolean()) {
+                samples = new double[Math.toIntExact(count)];
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] = in.readDouble();
+                }
+            }
+            return new PercolationStatsPart(gridSize, siteOrders[siteOrdinal], seed, totalTrials,
+                                            firstTrial, statistics, samples);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Newman–Ziff sweep of the n-by-n site percolation. Every trial opens all the sites once in random
+ * order with {@link Percolation} and records the observables after each opened site, so one trial
+ * gives the observables for every number of open sites (the microcanonical ensemble). The
+ * observables as a function of the site vacancy probability p are the binomial convolution of
+ * these:
+ * <p>
+ * Q(p) = sum over k of C(N, k) p^k (1 - p)^(N - k) Q(k)
+ * <p>
+ * where N = n * n and Q(k) is the mean of the observable over the trials with k open sites.
+ */
+public class PercolationSweep {
+
+    /**
+     * Weights smaller than this part of the largest binomial weight are ignored
+     */
+    private static final double NEGLIGIBLE_WEIGHT = 1e-16;
+
+    private final int numberOfAllSites;
+    private final int trials;
+
+    /**
+     * percolatingTrials[k] = number of trials that percolated with k open sites
+     */
+    private final long[] percolatingTrials;
+
+    /**
+     * largestClusterSum[k] = sum of the largest cluster sizes over the trials with k open sites
+     */
+    private final long[] largestClusterSum;
+
+    /**
+     * clusterCountSum[k] = sum of the number of clusters over the trials with k open sites
+     */
+    private final long[] clusterCountSum;
+
+    /**
+     * Perform trials sweeps on an n-by-n grid in parallel. Every trial gets its own {@link
+     * SplittableRandom} split from the one created with <code>seed</code>, the sums are exact
+     * integers, so the results depend only on the seed and not on the number of threads. The trials
+     * are split into one chunk per worker of the common pool, and every chunk adds into its own
+     * sums of n*n+1 longs per observable.
+     *
+     * @param n      grid size (both rows and columns)
+     * @param trials number of trials
+     * @param seed   the seed of the random streams of the trials
+     * @throws IllegalArgumentException if n < 1 or trials < 1
+     */
+    public PercolationSweep(int n, int trials, long seed) {
+        if (n < 1 || trials < 1) {
+            throw new IllegalArgumentException("n and trials should be greater than 0");
+        }
+        this.numberOfAllSites = n * n;
+        this.trials = trials;
+
+        SplittableRandom seedRandom = new SplittableRandom(seed);
+        SplittableRandom[] trialRandoms = new SplittableRandom[trials];
+        for (int i = 0; i < trialRandoms.length; i++) {
+            trialRandoms[i] = seedRandom.split();
+        }
+
+        // one accumulator per chunk and a fixed number of chunks, so the memory does not depend
+        // on how the stream would split the trials
+        int chunks = Math.min(trials, Math.max(1, ForkJoinPool.getCommonPoolParallelism()));
+        long[][][] chunkSums = new long[chunks][][];
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            long[][] acc = new long[3][numberOfAllSites + 1];
+            for (int i = firstTrialOf(chunk, chunks, trials);
+                 i < firstTrialOf(chunk + 1, chunks, trials); i++) {
+                sweep(n, trialRandoms[i], acc);
+            }
+            chunkSums[chunk] = acc;
+        });
+
+        long[][] sums = chunkSums[0];
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            for (int j = 0; j < sums.length; j++) {
+                for (int k = 0; k < sums[j].length; k++) {
+                    sums[j][k] += chunkSums[chunk][j][k];
+                }
+            }
+            chunkSums[chunk] = null;
+        }
+        this.percolatingTrials = sums[0];
+        this.largestClusterSum = sums[1];
+        this.clusterCountSum = sums[2];
+    }
+
+    /**
+     * Returns the first trial of the chunk when the trials are split into chunks of nearly equal
+     * size
+     *
+     * @param chunk  the chunk index (0 to chunks, chunks gives the end of the last chunk)
+     * @param chunks the number of chunks
+     * @param trials the number of trials
+     * @return the index of the first trial of the chunk
+     */
+    private static int firstTrialOf(int chunk, int chunks, int trials) {
+        return (int) ((long) trials * chunk / chunks);
+    }
+
+    /**
+     * Opens all the sites of one grid in a random permutation order and adds the observables after
+     * each opened site to the sums
+     *
+     * @param n      grid size
+     * @param random the random stream of the trial
+     * @param sums   percolating trials, largest cluster and cluster count sums
+     */
+    private static void sweep(int n, SplittableRandom random, long[][] sums) {
+        Percolation percolation = new Percolation(n);
+        int[] sites = new int[n * n];
+        for (int i = 0; i < sites.length; i++) {
+            sites[i] = i;
+        }
+        for (int i = 0; i < sites.length; i++) {
+            int j = random.nextInt(i, sites.length);
+            int site = sites[j];
+            sites[j] = sites[i];
+            sites[i] = site;
+
+            percolation.openSite(site);
+
+            int openSites = i + 1;
+            if (percolation.percolates()) {
+                sums[0][openSites]++;
+            }
+            sums[1][openSites] += percolation.largestClusterSize();
+            sums[2][openSites] += percolation.numberOfClusters();
+        }
+    }
+
+    /**
+     * Returns the fraction of the trials that percolated with the given number of open sites
+     *
+     * @param openSites the number of open sites (0 to n*n)
+     * @return the percolation probability with openSites open sites
+     */
+    public double percolationProbabilityAt(int openSites) {
+        checkOpenSites(openSites);
+        return (double) percolatingTrials[openSites] / trials;
+    }
+
+    /**
+     * Returns the mean size of the largest cluster divided by n*n with the given number of open
+     * sites
+     *
+     * @param openSites the number of open sites (0 to n*n)
+     * @return the mean largest cluster fraction with openSites open sites
+     */
+    public double largestClusterFractionAt(int openSites) {
+        checkOpenSites(openSites);
+        return (double) largestClusterSum[openSites] / trials / numberOfAllSites;
+    }
+
+    /**
+     * Returns the mean number of clusters with the given number of open sites
+     *
+     * @param openSites the number of open sites (0 to n*n)
+     * @return the mean number of clusters with openSites open sites
+     */
+    public double numberOfClustersAt(int openSites) {
+        checkOpenSites(openSites);
+        return (double) clusterCountSum[openSites] / trials;
+    }
+
+    /**
+     * Returns the probability that the system percolates when every site is open with probability
+     * p
+     *
+     * @param p the site vacancy probability
+     * @return the percolation probability
+     */
+    public double percolationProbability(double p) {
+        return convolve(percolatingTrials, p) / trials;
+    }
+
+    /**
+     * Returns the mean size of the largest cluster divided by n*n when every site is open with
+     * probability p
+     *
+     * @param p the site vacancy probability
+     * @return the mean largest cluster fraction
+     */
+    public double largestClusterFraction(double p) {
+        return convolve(largestClusterSum, p) / trials / numberOfAllSites;
+    }
+
+    /**
+     * Returns the mean number of clusters when every site is open with probability p
+     *
+     * @param p the site vacancy probability
+     * @return the mean number of clusters
+     */
+    public double numberOfClusters(double p) {
+        return convolve(clusterCountSum, p) / trials;
+    }
+
+    /**
+     * Returns sum of C(N, k) p^k (1 - p)^(N - k) values[k]. The binomial weights are calculated
+     * from the largest one at k = floor(N * p) outwards by their ratios, so no factorials are
+     * needed, then the sum is normalized by the sum of the weights.
+     *
+     * @param values the microcanonical values indexed by the number of open sites
+     * @param p      the site vacancy probability
+     * @return the binomial convolution of the values
+     */
+    private double convolve(long[] values, double p) {
+        if (p < 0 || p > 1) {
+            throw new IllegalArgumentException("p should be between 0 and 1: " + p);
+        }
+        if (p == 0) {
+            return values[0];
+        }
+        if (p == 1) {
+            return values[numberOfAllSites];
+        }
+
+        int peak = (int) Math.floor(numberOfAllSites * p);
+        double odds = p / (1 - p);
+
+        double weightSum = 1;
+        double sum = values[peak];
+
+        double weight = 1;
+        for (int k = peak; k < numberOfAllSites; k++) {
+            weight *= (double) (numberOfAllSites - k) / (k + 1) * odds;
+            if (weight < NEGLIGIBLE_WEIGHT) {
+                break;
+            }
+            weightSum += weight;
+            sum += weight * values[k + 1];
+        }
+
+        weight = 1;
+        for (int k = peak; k > 0; k--) {
+            weight *= (double) k / (numberOfAllSites - k + 1) / odds;
+            if (weight < NEGLIGIBLE_WEIGHT) {
+                break;
+            }
+            weightSum += weight;
+            sum += weight * values[k - 1];
+        }
+
+        return sum / weightSum;
+    }
+
+    /**
+     * Throws an {@link IllegalArgumentException} if openSites is not between 0 and n*n
+     *
+     * @param openSites the number of open sites
+     */
+    private void checkOpenSites(int openSites) {
+        if (openSites < 0 || openSites > numberOfAllSites) {
+            throw new IllegalArgumentException(
+                    "openSites should be between 0 and " + numberOfAllSites + ": " + openSites);
+        }
+    }
+
+    // prints the observables for p = 0.50, 0.51, ... 0.70
+    public static void main(String[] args) {
+        int gridSize = Integer.parseInt(args[0]);
+        int trials = Integer.parseInt(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : StdRandom.uniform(Integer.MAX_VALUE);
+        PercolationSweep sweep = new PercolationSweep(gridSize, trials, seed);
+        StdOut.println("p\tpercolates\tlargest cluster\tclusters");
+        for (int i = 50; i <= 70; i++) {
+            double p = i / 100.0;
+            StdOut.println(p + "\t" + sweep.percolationProbability(p) + "\t"
+                                   + sweep.largestClusterFraction(p) + "\t"
+                                   + sweep.numberOfClusters(p));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Mean and sample standard deviation of a stream of values in O(1) memory, using Welford's
+ * running update of the mean and of the sum of squared differences from the mean.
+ */
+final class RunningStatistics {
+
+    /**
+     * Number of values so far
+     */
+    private long count = 0;
+
+    /**
+     * Mean of the values so far
+     */
+    private double mean = 0;
+
+    /**
+     * Sum of squared differences from the current mean
+     */
+    private double sumOfSquaredDifferences = 0;
+
+    /**
+     * Creates empty statistics
+     */
+    RunningStatistics() {
+    }
+
+    /**
+     * Creates the statistics of values already summarized
+     *
+     * @param count                   number of values
+     * @param mean                    mean of the values
+     * @param sumOfSquaredDifferences sum of squared differences from the mean
+     */
+    RunningStatistics(long count, double mean, double sumOfSquaredDifferences) {
+        this.count = count;
+        this.mean = mean;
+        this.sumOfSquaredDifferences = sumOfSquaredDifferences;
+    }
+
+    /**
+     * Adds a value to the statistics
+     *
+     * @param value the value
+     */
+    void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        sumOfSquaredDifferences += delta * (value - mean);
+    }
+
+    /**
+     * Adds all the values of the other statistics, with the pairwise update of Chan et al.
+     *
+     * @param other the statistics to add
+     */
+    void merge(RunningStatistics other) {
+        if (other.count == 0) {
+            return;
+        }
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        sumOfSquaredDifferences += other.sumOfSquaredDifferences
+                + delta * delta * ((double) count * other.count / total);
+        count = total;
+    }
+
+    /**
+     * Returns the sum of squared differences from the mean
+     *
+     * @return the sum of squared differences from the mean
+     */
+    double sumOfSquaredDifferences() {
+        return sumOfSquaredDifferences;
+    }
+
+    /**
+     * Returns the number of values
+     *
+     * @return the number of values
+     */
+    long count() {
+        return count;
+    }
+
+    /**
+     * Returns the mean of the values, NaN if there are none
+     *
+     * @return the mean of the values
+     */
+    double mean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * Returns the sample standard deviation of the values, NaN if there are less than two
+     *
+     * @return the sample standard deviation
+     */
+    double stddev() {
+        return count < 2 ? Double.NaN : Math.sqrt(sumOfSquaredDifferences / (count - 1));
+    }
+
+    /**
+     * Returns the half width of the confidence interval of the mean
+     *
+     * @param z the quantile of the standard normal distribution (1.96 for 95%)
+     * @return z * stddev / sqrt(count)
+     */
+    double halfWidth(double z) {
+        return z * stddev() / Math.sqrt(count);
+    }
+}
@@ -0,0 +1,239 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Percolation of a fully known n-by-n configuration, computed in parallel. The grid is split into
+ * horizontal stripes, the clusters of every stripe are labeled on its own thread with a local
+ * {@link FlaggedUnionFind}, then only the first and last rows of the stripes are merged in a
+ * second, small union-find. The TOP/BOTTOM flags of the local roots are carried into the merge,
+ * so {@link #percolates()} gives the same answer as opening every open site of the configuration
+ * in a {@link Percolation}.
+ */
+public class StripedPercolation {
+
+    /**
+     * Size of the grid both row and column
+     */
+    private final int gridSize;
+
+    /**
+     * Number of open sites in the grid
+     */
+    private final int numberOfOpenSites;
+
+    /**
+     * True if the system percolates
+     */
+    private final boolean percolation;
+
+    /**
+     * Labels the configuration using one stripe per thread of the common fork-join pool
+     *
+     * @param open open[row][col] is true if the site is open, 0-based, n-by-n
+     * @throws IllegalArgumentException if open is null, empty or not square
+     */
+    public StripedPercolation(boolean[][] open) {
+        this(open, ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Labels the configuration using the given number of stripes
+     *
+     * @param open    open[row][col] is true if the site is open, 0-based, n-by-n
+     * @param stripes the number of stripes, at most n are used
+     * @throws IllegalArgumentException if open is null, empty or not square or stripes < 1
+     */
+    public StripedPercolation(boolean[][] open, int stripes) {
+        if (open == null || open.length == 0) {
+            throw new IllegalArgumentException("open should not be null or empty");
+        }
+        for (boolean[] row : open) {
+            if (row == null || row.length != open.length) {
+                throw new IllegalArgumentException("open should be an n-by-n array");
+            }
+        }
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes should be greater than 0");
+        }
+        this.gridSize = open.length;
+
+        int stripeCount = Math.min(stripes, gridSize);
+        Stripe[] labeled = IntStream.range(0, stripeCount).parallel()
+                                    .mapToObj(i -> new Stripe(open,
+                                                              i * gridSize / stripeCount,
+                                                              (i + 1) * gridSize / stripeCount))
+                                    .toArray(Stripe[]::new);
+
+        int openSites = 0;
+        for (Stripe stripe : labeled) {
+            openSites += stripe.numberOfOpenSites;
+        }
+        this.numberOfOpenSites = openSites;
+        this.percolation = merge(labeled);
+    }
+
+    /**
+     * Merges the boundary rows of the stripes: the boundary sites of a stripe that share a local
+     * root are connected, then the last row of every stripe is connected to the first row of the
+     * next one where both sites are open.
+     *
+     * @param stripes the labeled stripes from top to bottom
+     * @return true if the system percolates
+     */
+    private boolean merge(Stripe[] stripes) {
+        int slotsPerStripe = 2 * gridSize;
+        FlaggedUnionFind boundaries = new FlaggedUnionFind(stripes.length * slotsPerStripe);
+
+        for (int s = 0; s < stripes.length; s++) {
+            Stripe stripe = stripes[s];
+            if (stripe.percolatesInside) {
+                return true;
+            }
+            int base = s * slotsPerStripe;
+            for (int slot = 0; slot < slotsPerStripe; slot++) {
+                if (stripe.representative[slot] >= 0) {
+                    boundaries.setFlag(base + slot,
+                                       FlaggedUnionFind.SITE_OPEN | stripe.rootFlags[slot]);
+                    boundaries.union(base + slot, base + stripe.representative[slot]);
+                }
+            }
+            if (s > 0) {
+                int previousLastRow = base - gridSize;
+                for (int col = 0; col < gridSize; col++) {
+                    if (boundaries.isOpen(previousLastRow + col) && boundaries.isOpen(base + col)) {
+                        boundaries.union(previousLastRow + col, base + col);
+                    }
+                }
+            }
+        }
+
+        for (int slot = 0; slot < stripes.length * slotsPerStripe; slot++) {
+            if ((boundaries.rootFlags(slot) & FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM)
+                    == FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the system percolates
+     *
+     * @return true, if the system percolates
+     */
+    public boolean percolates() {
+        return percolation;
+    }
+
+    /**
+     * Returns the number of open sites
+     *
+     * @return the number of open sites
+     */
+    public int numberOfOpenSites() {
+        return numberOfOpenSites;
+    }
+
+    /**
+     * Returns the grid dimension
+     *
+     * @return the grid dimension
+     */
+    public int gridSize() {
+        return gridSize;
+    }
+
+    /**
+     * The result of labeling the rows <code>firstRow</code> (inclusive) to <code>lastRow</code>
+     * (exclusive). Only the boundary rows are kept: slot <code>col</code> is the first row, slot
+     * <code>gridSize + col</code> is the last row of the stripe.
+     */
+    private final class Stripe {
+
+        /**
+         * representative[slot] = the first boundary slot with the same local root, -1 if the site
+         * is blocked
+         */
+        private final int[] representative;
+
+        /**
+         * rootFlags[slot] = TOP/BOTTOM flags of the local root of the boundary site
+         */
+        private final byte[] rootFlags;
+
+        /**
+         * True if a cluster inside the stripe is connected to both the top and the bottom
+         */
+        private boolean percolatesInside = false;
+
+        private int numberOfOpenSites = 0;
+
+        private Stripe(boolean[][] open, int firstRow, int lastRow) {
+            int rows = lastRow - firstRow;
+            FlaggedUnionFind unionFind = new FlaggedUnionFind(rows * gridSize);
+
+            for (int r = 0; r < rows; r++) {
+                int row = firstRow + r;
+                for (int col = 0; col < gridSize; col++) {
+                    if (!open[row][col]) {
+                        continue;
+                    }
+                    int site = r * gridSize + col;
+                    int flag = FlaggedUnionFind.SITE_OPEN;
+                    if (row == 0) {
+                        flag |= FlaggedUnionFind.CONNECTED_TO_TOP;
+                    }
+                    if (row == gridSize - 1) {
+                        flag |= FlaggedUnionFind.CONNECTED_TO_BOTTOM;
+                    }
+                    unionFind.setFlag(site, flag);
+                    numberOfOpenSites++;
+
+                    int root = site;
+                    if (r > 0 && unionFind.isOpen(site - gridSize)) {
+                        root = unionFind.union(root, site - gridSize);
+                    }
+                    if (col > 0 && unionFind.isOpen(site - 1)) {
+                        root = unionFind.union(root, site - 1);
+                    }
+                    if ((unionFind.flags(root) & FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM)
+                            == FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM) {
+                        percolatesInside = true;
+                    }
+                }
+            }
+
+            representative = new int[2 * gridSize];
+            rootFlags = new byte[2 * gridSize];
+
+            // open addressing from the local roots to their first slot, there are at most
+            // 2 * gridSize roots, so the table is kept at most half full
+            int capacity = Integer.highestOneBit(4 * gridSize - 1) << 1;
+            int shift = Integer.numberOfLeadingZeros(capacity - 1);
+            int[] roots = new int[capacity];
+            int[] firstSlots = new int[capacity];
+            Arrays.fill(roots, -1);
+            for (int slot = 0; slot < representative.length; slot++) {
+                int col = slot % gridSize;
+                int site = slot < gridSize ? col : (rows - 1) * gridSize + col;
+                if (!unionFind.isOpen(site)) {
+                    representative[slot] = -1;
+                    continue;
+                }
+                int root = unionFind.find(site);
+                int i = (root * 0x9E3779B9) >>> shift;
+                while (roots[i] != -1 && roots[i] != root) {
+                    i = (i + 1) & (capacity - 1);
+                }
+                if (roots[i] == -1) {
+                    roots[i] = root;
+                    firstSlots[i] = slot;
+                }
+                representative[slot] = firstSlots[i];
+                rootFlags[slot] = (byte) (unionFind.flags(root)
+                        & FlaggedUnionFind.CONNECTED_TO_BOTH_TOP_AND_BOTTOM);
+            }
+        }
+    }
+}